@@ -16,12 +16,16 @@
 
 package co.aospa.keyhandler
 
+import android.app.ActivityManager
 import android.app.SearchManager
 import android.app.StatusBarManager
+import android.content.ActivityNotFoundException
 import android.content.BroadcastReceiver
 import android.content.Context
 import android.content.Intent
 import android.content.IntentFilter
+import android.content.pm.PackageManager
+import android.database.ContentObserver
 import android.hardware.camera2.CameraManager
 import android.media.AudioManager
 import android.os.Bundle
@@ -36,18 +40,22 @@ import android.os.Vibrator
 import android.provider.MediaStore
 import android.provider.Settings
 import android.view.KeyEvent
+import android.view.ViewConfiguration
 import android.view.WindowManager.ScreenshotSource.SCREENSHOT_VENDOR_GESTURE
 import android.util.Log
 
 import com.android.internal.app.AssistUtils
 import com.android.internal.util.ScreenshotHelper
 
+import java.util.concurrent.atomic.AtomicReference
+
 class FpDoubleTapHandler(
     private val context: Context
-) {
+) : FpGestureRecognizer.Listener {
     private val audioManager = context.getSystemService(AudioManager::class.java)
     private val cameraManager = context.getSystemService(CameraManager::class.java)
     private val powerManager = context.getSystemService(PowerManager::class.java)
+    private val searchManager = context.getSystemService(SearchManager::class.java)
     private val statusBarManager = context.getSystemService(StatusBarManager::class.java)
     private val vibrator = context.getSystemService(Vibrator::class.java)
 
@@ -58,21 +66,57 @@ class FpDoubleTapHandler(
     private val vibrationAttrs =
             VibrationAttributes.createForUsage(VibrationAttributes.USAGE_HARDWARE_FEEDBACK)
 
-    private val isFpDoubleTapEnabled: Boolean
-        get() =
-            Settings.System.getIntForUser(context.contentResolver, SETTING_KEY_ENABLE,
-                0, UserHandle.USER_CURRENT) == 1
+    private val gestureRecognizer = FpGestureRecognizer(handler, this)
+
+    private class Action(
+        val name: String,
+        /* resolves what the action needs ahead of ACTION_UP, on the handler thread */
+        val prewarm: ((press: Int) -> Unit)? = null,
+        val run: (eventTime: Long) -> Unit
+    )
+
+    private val actions = mapOf(
+        1 to Action("screenshot") { takeScreenshot() },
+        2 to Action("assist") { launchAssist(it) },
+        3 to Action("play_pause") { playPauseMedia() },
+        4 to Action("notifications") { showNotifications() },
+        5 to Action("camera", ::prepareCamera) { launchCamera() },
+        6 to Action("flashlight") { toggleFlashlight() },
+        7 to Action("mute") { toggleRingerMode(AudioManager.RINGER_MODE_SILENT) },
+        8 to Action("vibrate") { toggleRingerMode(AudioManager.RINGER_MODE_VIBRATE) },
+        9 to Action("volume") { showVolumePanel() },
+        10 to Action("sleep") { goToSleep() }
+    )
+
+    // snapshot of the settings, so the key path never queries the settings provider
+    @Volatile private var isFpDoubleTapEnabled = false
+    @Volatile private var fpDoubleTapAction = 1
+    @Volatile private var fpTripleTapAction = 0
+    @Volatile private var fpLongPressAction = 0
+
+    // counts ACTION_DOWN, a pre-warm result is only used by the press it was started for
+    @Volatile private var press = 0
+    private val cameraIntent = AtomicReference<PreparedIntent?>()
 
-    private val fpDoubleTapAction: Int
-        get() =
-            Settings.System.getIntForUser(context.contentResolver, SETTING_KEY_ACTION,
-                1, UserHandle.USER_CURRENT)
+    private class PreparedIntent(val press: Int, val intent: Intent)
 
     private var torchOn = false
     private var screenOn = true
     private var screenOnRunnable = Runnable { screenOn = true }
 
     init {
+        updateSettings()
+        val settingsObserver = object: ContentObserver(handler) {
+            override fun onChange(selfChange: Boolean) {
+                updateSettings()
+            }
+        }
+        for (key in arrayOf(SETTING_KEY_ENABLE, SETTING_KEY_ACTION,
+                SETTING_KEY_TRIPLE_TAP_ACTION, SETTING_KEY_LONG_PRESS_ACTION,
+                SETTING_KEY_MULTI_TAP_TIMEOUT, SETTING_KEY_LONG_PRESS_TIMEOUT)) {
+            context.contentResolver.registerContentObserver(
+                Settings.System.getUriFor(key), false, settingsObserver, UserHandle.USER_ALL)
+        }
         cameraManager.registerTorchCallback(
             object: CameraManager.TorchCallback() {
                 override fun onTorchModeChanged(cameraId: String, enabled: Boolean) {
@@ -91,42 +135,125 @@ class FpDoubleTapHandler(
                         Intent.ACTION_SCREEN_OFF -> {
                             handler.removeCallbacks(screenOnRunnable)
                             screenOn = false
+                            gestureRecognizer.reset()
                         }
                         Intent.ACTION_USER_PRESENT -> {
                             handler.postDelayed(screenOnRunnable, UNLOCK_WAIT_MS)
                         }
+                        Intent.ACTION_USER_SWITCHED -> updateSettings()
                     }
                 }
             },
             IntentFilter(Intent.ACTION_USER_PRESENT).apply {
                 addAction(Intent.ACTION_SCREEN_OFF)
+                addAction(Intent.ACTION_USER_SWITCHED)
             }
         )
+        context.registerReceiver(
+            object: BroadcastReceiver() {
+                override fun onReceive(context: Context, intent: Intent) {
+                    // the prepared camera may have been removed or replaced
+                    cameraIntent.set(null)
+                }
+            },
+            IntentFilter(Intent.ACTION_PACKAGE_ADDED).apply {
+                addAction(Intent.ACTION_PACKAGE_CHANGED)
+                addAction(Intent.ACTION_PACKAGE_REMOVED)
+                addDataScheme("package")
+            },
+            null,
+            handler
+        )
+    }
+
+    private fun updateSettings() {
+        isFpDoubleTapEnabled = Settings.System.getIntForUser(context.contentResolver,
+            SETTING_KEY_ENABLE, 0, UserHandle.USER_CURRENT) == 1
+        fpDoubleTapAction = Settings.System.getIntForUser(context.contentResolver,
+            SETTING_KEY_ACTION, 1, UserHandle.USER_CURRENT)
+        fpTripleTapAction = Settings.System.getIntForUser(context.contentResolver,
+            SETTING_KEY_TRIPLE_TAP_ACTION, 0, UserHandle.USER_CURRENT)
+        fpLongPressAction = Settings.System.getIntForUser(context.contentResolver,
+            SETTING_KEY_LONG_PRESS_ACTION, 0, UserHandle.USER_CURRENT)
+        var gestures = 0
+        for (gesture in GESTURES) {
+            if (actions.containsKey(getAction(gesture))) {
+                gestures = gestures or gesture
+            }
+        }
+        gestureRecognizer.enabledGestures = gestures
+        // the sensor may need other windows than the touchscreen, 0 keeps the system ones
+        gestureRecognizer.multiTapTimeoutMs = getTimeout(SETTING_KEY_MULTI_TAP_TIMEOUT,
+            ViewConfiguration.getMultiPressTimeout())
+        gestureRecognizer.longPressTimeoutMs = getTimeout(SETTING_KEY_LONG_PRESS_TIMEOUT,
+            ViewConfiguration.getLongPressTimeout())
+        dlog("updateSettings: enabled=$isFpDoubleTapEnabled action=$fpDoubleTapAction"
+                + " tripleTapAction=$fpTripleTapAction longPressAction=$fpLongPressAction"
+                + " multiTapTimeoutMs=${gestureRecognizer.multiTapTimeoutMs}"
+                + " longPressTimeoutMs=${gestureRecognizer.longPressTimeoutMs}")
+    }
+
+    private fun getTimeout(key: String, default: Int): Long {
+        val timeout = Settings.System.getIntForUser(context.contentResolver, key, 0,
+            UserHandle.USER_CURRENT)
+        return (if (timeout > 0) timeout else default).toLong()
+    }
+
+    private fun getAction(gesture: Int) = when (gesture) {
+        FpGestureRecognizer.GESTURE_DOUBLE_TAP -> fpDoubleTapAction
+        FpGestureRecognizer.GESTURE_TRIPLE_TAP -> fpTripleTapAction
+        FpGestureRecognizer.GESTURE_LONG_PRESS -> fpLongPressAction
+        else -> 0
     }
 
     fun handleEvent(event: KeyEvent) {
-        val enabled = isFpDoubleTapEnabled
-        val action = fpDoubleTapAction
+        if (!isFpDoubleTapEnabled || !screenOn) {
+            gestureRecognizer.reset()
+            return
+        }
+        if (event.action == KeyEvent.ACTION_DOWN && event.repeatCount == 0) {
+            press++
+        }
+        gestureRecognizer.onKeyEvent(event)
+    }
+
+    override fun onGesturePossible(gesture: Int) {
+        // this is on the input policy path, resolving can take a while
+        val prewarm = actions[getAction(gesture)]?.prewarm ?: return
+        val currentPress = press
+        handler.post { prewarm(currentPress) }
+    }
+
+    override fun onGesture(gesture: Int, downTime: Long, eventTime: Long) {
+        val action = actions[getAction(gesture)]
         val interactive = powerManager.isInteractive() // TODO: support screen off?
-        dlog("handleEvent: enabled=$enabled action=$action"
+        dlog("onGesture: gesture=$gesture action=${action?.name}"
                 + " screenOn=$screenOn interactive=$interactive")
-        if (!screenOn || !enabled || !interactive || event.action != KeyEvent.ACTION_UP) {
+        if (action == null || !screenOn || !interactive) {
             dlog("wont handle")
             return
         }
-        when (action) {
-            1 -> takeScreenshot()
-            2 -> launchAssist(event.eventTime)
-            3 -> playPauseMedia()
-            4 -> showNotifications()
-            5 -> launchCamera()
-            6 -> toggleFlashlight()
-            7 -> toggleRingerMode(AudioManager.RINGER_MODE_SILENT)
-            8 -> toggleRingerMode(AudioManager.RINGER_MODE_VIBRATE)
-            9 -> showVolumePanel()
-            10 -> goToSleep()
-            else -> Log.e(TAG, "unsupported action: $action")
+        action.run(eventTime)
+        val now = SystemClock.uptimeMillis()
+        dlog("onGesture: key to action ${now - eventTime}ms"
+                + " down to action ${now - downTime}ms")
+    }
+
+    private fun prepareCamera(press: Int) {
+        // a result that is only ready after its press was dispatched is never used
+        cameraIntent.set(PreparedIntent(press, resolveCameraIntent()))
+    }
+
+    private fun resolveCameraIntent(): Intent {
+        val intent = Intent(MediaStore.INTENT_ACTION_STILL_IMAGE_CAMERA)
+            .addFlags(Intent.FLAG_ACTIVITY_NEW_TASK)
+        val info = context.packageManager.resolveActivityAsUser(intent,
+            PackageManager.MATCH_DEFAULT_ONLY, ActivityManager.getCurrentUser())
+        // without a default camera the chooser has to be shown, keep the intent implicit
+        if (info != null && info.activityInfo.packageName != PACKAGE_ANDROID) {
+            intent.setClassName(info.activityInfo.packageName, info.activityInfo.name)
         }
+        return intent
     }
 
     private fun takeScreenshot() {
@@ -136,7 +263,6 @@ class FpDoubleTapHandler(
 
     private fun launchAssist(eventTime: Long) {
         dlog("launchAssist: eventTime=$eventTime")
-        val searchManager = context.getSystemService(SearchManager::class.java)
         if (searchManager == null) {
             dlog("launchAssist: searchManager is null!")
             return
@@ -164,12 +290,18 @@ class FpDoubleTapHandler(
     }
 
     private fun launchCamera() {
-        dlog("launchCamera")
+        val currentPress = press
+        val prepared = cameraIntent.getAndSet(null)?.takeIf { it.press == currentPress }
+        val intent = prepared?.intent ?: resolveCameraIntent()
+        dlog("launchCamera: ${intent.component} prepared=${prepared != null}")
         vibrate()
-        context.startActivity(
-            Intent(MediaStore.INTENT_ACTION_STILL_IMAGE_CAMERA)
-                .addFlags(Intent.FLAG_ACTIVITY_NEW_TASK)
-        )
+        try {
+            context.startActivity(intent)
+        } catch (e: ActivityNotFoundException) {
+            // the camera went away after it was resolved
+            Log.w(TAG, "launchCamera: ${intent.component} not found, resolving again", e)
+            context.startActivity(resolveCameraIntent())
+        }
     }
 
     private fun toggleFlashlight() {
@@ -207,10 +339,20 @@ class FpDoubleTapHandler(
     companion object {
         private const val TAG = "FpDoubleTapHandler"
         private const val REAR_CAMERA_ID = "0"
+        private const val PACKAGE_ANDROID = "android"
         private const val SETTING_KEY_ENABLE = "fp_double_tap_enable"
         private const val SETTING_KEY_ACTION = "fp_double_tap_action"
+        private const val SETTING_KEY_TRIPLE_TAP_ACTION = "fp_triple_tap_action"
+        private const val SETTING_KEY_LONG_PRESS_ACTION = "fp_long_press_action"
+        private const val SETTING_KEY_MULTI_TAP_TIMEOUT = "fp_multi_tap_timeout"
+        private const val SETTING_KEY_LONG_PRESS_TIMEOUT = "fp_long_press_timeout"
         private const val UNLOCK_WAIT_MS = 1500L
 
+        private val GESTURES = intArrayOf(
+            FpGestureRecognizer.GESTURE_DOUBLE_TAP,
+            FpGestureRecognizer.GESTURE_TRIPLE_TAP,
+            FpGestureRecognizer.GESTURE_LONG_PRESS)
+
         fun dlog(msg: String) {
             if (Log.isLoggable(TAG, Log.DEBUG)) {
                 Log.d(TAG, msg)
@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2023 Paranoid Android
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.aospa.keyhandler
+
+import android.os.Handler
+import android.os.SystemClock
+import android.util.Log
+import android.view.KeyEvent
+
+/**
+ * Turns the presses of the side fingerprint key into gestures.
+ *
+ * The sensor reports its own double tap as one press. A second press within the
+ * multi tap window makes it a triple tap, and holding the first press for the long
+ * press window makes it a long press. Only gestures in [enabledGestures] are waited
+ * for, so a press that can only complete one gesture is dispatched on ACTION_UP.
+ */
+class FpGestureRecognizer(
+    private val scheduler: Scheduler,
+    private val listener: Listener
+) {
+    constructor(handler: Handler, listener: Listener) : this(HandlerScheduler(handler), listener)
+
+    /* runs the timeouts, a fake one lets tests control time */
+    interface Scheduler {
+        fun uptimeMillis(): Long
+        fun postAtTime(runnable: Runnable, uptimeMillis: Long)
+        fun removeCallbacks(runnable: Runnable)
+    }
+
+    interface Listener {
+        /* the press in progress may complete the gesture */
+        fun onGesturePossible(gesture: Int)
+
+        /* downTime is when the first press of the gesture went down */
+        fun onGesture(gesture: Int, downTime: Long, eventTime: Long)
+    }
+
+    @Volatile var enabledGestures = GESTURE_DOUBLE_TAP
+    @Volatile var multiTapTimeoutMs = 300L
+    @Volatile var longPressTimeoutMs = 500L
+
+    private var presses = 0
+    private var downTime = 0L
+    private var isDown = false
+    private var longPressed = false
+
+    private val multiTapTimeout = Runnable {
+        // downTime is read under the lock, a new press may already be setting it
+        val gestureDownTime = synchronized(this) {
+            if (isDown || presses != 1) {
+                return@Runnable
+            }
+            presses = 0
+            downTime
+        }
+        dispatch(GESTURE_DOUBLE_TAP, gestureDownTime, scheduler.uptimeMillis())
+    }
+
+    private val longPressTimeout = Runnable {
+        val gestureDownTime = synchronized(this) {
+            if (!isDown) {
+                return@Runnable
+            }
+            longPressed = true
+            presses = 0
+            downTime
+        }
+        dispatch(GESTURE_LONG_PRESS, gestureDownTime, scheduler.uptimeMillis())
+    }
+
+    fun onKeyEvent(event: KeyEvent) {
+        when (event.action) {
+            KeyEvent.ACTION_DOWN -> onDown(event)
+            KeyEvent.ACTION_UP -> onUp(event)
+        }
+    }
+
+    fun reset() {
+        synchronized(this) {
+            presses = 0
+            isDown = false
+            longPressed = false
+        }
+        scheduler.removeCallbacks(multiTapTimeout)
+        scheduler.removeCallbacks(longPressTimeout)
+    }
+
+    private fun onDown(event: KeyEvent) {
+        if (event.repeatCount > 0) {
+            return
+        }
+        scheduler.removeCallbacks(multiTapTimeout)
+        val possible = synchronized(this) {
+            isDown = true
+            longPressed = false
+            if (presses == 0) {
+                downTime = event.downTime
+            }
+            if (presses == 0) GESTURE_DOUBLE_TAP or GESTURE_LONG_PRESS else GESTURE_TRIPLE_TAP
+        } and enabledGestures
+        if (possible and GESTURE_LONG_PRESS != 0) {
+            scheduler.postAtTime(longPressTimeout, event.downTime + longPressTimeoutMs)
+        }
+        for (gesture in GESTURES) {
+            if (possible and gesture != 0) {
+                listener.onGesturePossible(gesture)
+            }
+        }
+    }
+
+    private fun onUp(event: KeyEvent) {
+        scheduler.removeCallbacks(longPressTimeout)
+        val gestureDownTime: Long
+        val gesture = synchronized(this) {
+            if (!isDown || longPressed) {
+                // the long press was already dispatched
+                isDown = false
+                longPressed = false
+                return
+            }
+            isDown = false
+            presses++
+            if (presses == 1 && enabledGestures and GESTURE_TRIPLE_TAP != 0) {
+                // dispatched from the timeout unless another press follows
+                scheduler.postAtTime(multiTapTimeout, event.eventTime + multiTapTimeoutMs)
+                return
+            }
+            val gesture = if (presses == 1) GESTURE_DOUBLE_TAP else GESTURE_TRIPLE_TAP
+            presses = 0
+            gestureDownTime = downTime
+            gesture
+        }
+        dispatch(gesture, gestureDownTime, event.eventTime)
+    }
+
+    private fun dispatch(gesture: Int, downTime: Long, eventTime: Long) {
+        if (enabledGestures and gesture == 0) {
+            dlog("dispatch: gesture $gesture is disabled")
+            return
+        }
+        listener.onGesture(gesture, downTime, eventTime)
+    }
+
+    private class HandlerScheduler(private val handler: Handler) : Scheduler {
+        override fun uptimeMillis() = SystemClock.uptimeMillis()
+
+        override fun postAtTime(runnable: Runnable, uptimeMillis: Long) {
+            handler.postAtTime(runnable, uptimeMillis)
+        }
+
+        override fun removeCallbacks(runnable: Runnable) {
+            handler.removeCallbacks(runnable)
+        }
+    }
+
+    companion object {
+        private const val TAG = "FpGestureRecognizer"
+
+        const val GESTURE_DOUBLE_TAP = 1 shl 0
+        const val GESTURE_TRIPLE_TAP = 1 shl 1
+        const val GESTURE_LONG_PRESS = 1 shl 2
+
+        private val GESTURES = intArrayOf(
+            GESTURE_DOUBLE_TAP, GESTURE_TRIPLE_TAP, GESTURE_LONG_PRESS)
+
+        fun dlog(msg: String) {
+            if (Log.isLoggable(TAG, Log.DEBUG)) {
+                Log.d(TAG, msg)
+            }
+        }
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2026 Paranoid Android
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.aospa.keyhandler
+
+import android.view.KeyEvent
+import androidx.test.runner.AndroidJUnit4
+import co.aospa.keyhandler.FpGestureRecognizer.Companion.GESTURE_DOUBLE_TAP
+import co.aospa.keyhandler.FpGestureRecognizer.Companion.GESTURE_LONG_PRESS
+import co.aospa.keyhandler.FpGestureRecognizer.Companion.GESTURE_TRIPLE_TAP
+import org.junit.Assert.assertEquals
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+
+@RunWith(AndroidJUnit4::class)
+class FpGestureRecognizerTest {
+
+    /* runs the posted timeouts only when time is advanced */
+    private class FakeScheduler : FpGestureRecognizer.Scheduler {
+        var now = 0L
+        private val pending = mutableListOf<Pair<Runnable, Long>>()
+
+        override fun uptimeMillis() = now
+
+        override fun postAtTime(runnable: Runnable, uptimeMillis: Long) {
+            pending.add(runnable to uptimeMillis)
+        }
+
+        override fun removeCallbacks(runnable: Runnable) {
+            pending.removeAll { it.first === runnable }
+        }
+
+        fun advanceTo(time: Long) {
+            while (true) {
+                val next = pending.filter { it.second <= time }.minByOrNull { it.second } ?: break
+                pending.remove(next)
+                now = next.second
+                next.first.run()
+            }
+            now = time
+        }
+    }
+
+    private class RecordingListener : FpGestureRecognizer.Listener {
+        val possible = mutableListOf<Int>()
+        val gestures = mutableListOf<Triple<Int, Long, Long>>()
+
+        override fun onGesturePossible(gesture: Int) {
+            possible.add(gesture)
+        }
+
+        override fun onGesture(gesture: Int, downTime: Long, eventTime: Long) {
+            gestures.add(Triple(gesture, downTime, eventTime))
+        }
+    }
+
+    private val scheduler = FakeScheduler()
+    private val listener = RecordingListener()
+    private val recognizer = FpGestureRecognizer(scheduler, listener)
+
+    @Before
+    fun setUp() {
+        recognizer.multiTapTimeoutMs = MULTI_TAP_TIMEOUT_MS
+        recognizer.longPressTimeoutMs = LONG_PRESS_TIMEOUT_MS
+    }
+
+    @Test
+    fun doubleTapWithoutTripleTapAction_dispatchesOnUp() {
+        recognizer.enabledGestures = GESTURE_DOUBLE_TAP or GESTURE_LONG_PRESS
+        press(1000, 1050)
+        assertEquals(listOf(Triple(GESTURE_DOUBLE_TAP, 1000L, 1050L)), listener.gestures)
+        // nothing is left waiting for a second press
+        scheduler.advanceTo(5000)
+        assertEquals(1, listener.gestures.size)
+    }
+
+    @Test
+    fun doubleTapWithTripleTapAction_dispatchesAfterWindow() {
+        recognizer.enabledGestures = GESTURE_DOUBLE_TAP or GESTURE_TRIPLE_TAP
+        press(1000, 1050)
+        scheduler.advanceTo(1050 + MULTI_TAP_TIMEOUT_MS - 1)
+        assertEquals(emptyList<Triple<Int, Long, Long>>(), listener.gestures)
+        scheduler.advanceTo(1050 + MULTI_TAP_TIMEOUT_MS)
+        assertEquals(listOf(Triple(GESTURE_DOUBLE_TAP, 1000L, 1050L + MULTI_TAP_TIMEOUT_MS)),
+            listener.gestures)
+    }
+
+    @Test
+    fun secondPressInsideWindow_dispatchesTripleTap() {
+        recognizer.enabledGestures = GESTURE_DOUBLE_TAP or GESTURE_TRIPLE_TAP
+        press(1000, 1050)
+        press(1200, 1250)
+        assertEquals(listOf(Triple(GESTURE_TRIPLE_TAP, 1000L, 1250L)), listener.gestures)
+        assertEquals(listOf(GESTURE_DOUBLE_TAP, GESTURE_TRIPLE_TAP), listener.possible)
+        // the pending double tap was cancelled by the second press
+        scheduler.advanceTo(5000)
+        assertEquals(1, listener.gestures.size)
+    }
+
+    @Test
+    fun secondPressAfterWindow_dispatchesTwoDoubleTaps() {
+        recognizer.enabledGestures = GESTURE_DOUBLE_TAP or GESTURE_TRIPLE_TAP
+        press(1000, 1050)
+        val secondDown = 1050 + MULTI_TAP_TIMEOUT_MS + 100
+        press(secondDown, secondDown + 50)
+        scheduler.advanceTo(secondDown + 50 + MULTI_TAP_TIMEOUT_MS)
+        assertEquals(listOf(GESTURE_DOUBLE_TAP, GESTURE_DOUBLE_TAP),
+            listener.gestures.map { it.first })
+        assertEquals(listOf(1000L, secondDown), listener.gestures.map { it.second })
+    }
+
+    @Test
+    fun longPressWithoutRelease_dispatchesOnTimeout() {
+        recognizer.enabledGestures = GESTURE_DOUBLE_TAP or GESTURE_LONG_PRESS
+        down(1000)
+        scheduler.advanceTo(1000 + LONG_PRESS_TIMEOUT_MS)
+        assertEquals(listOf(Triple(GESTURE_LONG_PRESS, 1000L, 1000L + LONG_PRESS_TIMEOUT_MS)),
+            listener.gestures)
+    }
+
+    @Test
+    fun longPressWithRelease_dispatchesOnlyLongPress() {
+        recognizer.enabledGestures = GESTURE_DOUBLE_TAP or GESTURE_LONG_PRESS
+        down(1000)
+        scheduler.advanceTo(1000 + LONG_PRESS_TIMEOUT_MS)
+        up(1000, 2000)
+        scheduler.advanceTo(5000)
+        assertEquals(listOf(GESTURE_LONG_PRESS), listener.gestures.map { it.first })
+    }
+
+    @Test
+    fun releaseBeforeLongPressTimeout_dispatchesDoubleTap() {
+        recognizer.enabledGestures = GESTURE_DOUBLE_TAP or GESTURE_LONG_PRESS
+        press(1000, 1000 + LONG_PRESS_TIMEOUT_MS - 1)
+        scheduler.advanceTo(5000)
+        assertEquals(listOf(GESTURE_DOUBLE_TAP), listener.gestures.map { it.first })
+    }
+
+    @Test
+    fun reset_dropsPressInProgress() {
+        recognizer.enabledGestures = GESTURE_DOUBLE_TAP or GESTURE_LONG_PRESS
+        down(1000)
+        recognizer.reset()
+        scheduler.advanceTo(1000 + LONG_PRESS_TIMEOUT_MS)
+        up(1000, 2000)
+        assertEquals(emptyList<Triple<Int, Long, Long>>(), listener.gestures)
+    }
+
+    @Test
+    fun reset_dropsPendingDoubleTap() {
+        recognizer.enabledGestures = GESTURE_DOUBLE_TAP or GESTURE_TRIPLE_TAP
+        press(1000, 1050)
+        recognizer.reset()
+        scheduler.advanceTo(5000)
+        assertEquals(emptyList<Triple<Int, Long, Long>>(), listener.gestures)
+        // the next press starts a new gesture
+        press(6000, 6050)
+        scheduler.advanceTo(6050 + MULTI_TAP_TIMEOUT_MS)
+        assertEquals(listOf(Triple(GESTURE_DOUBLE_TAP, 6000L, 6050L + MULTI_TAP_TIMEOUT_MS)),
+            listener.gestures)
+    }
+
+    private fun press(downTime: Long, upTime: Long) {
+        down(downTime)
+        scheduler.advanceTo(upTime)
+        up(downTime, upTime)
+    }
+
+    private fun down(downTime: Long) {
+        scheduler.advanceTo(downTime)
+        recognizer.onKeyEvent(KeyEvent(downTime, downTime, KeyEvent.ACTION_DOWN, KEYCODE, 0))
+    }
+
+    private fun up(downTime: Long, eventTime: Long) {
+        recognizer.onKeyEvent(KeyEvent(downTime, eventTime, KeyEvent.ACTION_UP, KEYCODE, 0))
+    }
+
+    companion object {
+        private const val MULTI_TAP_TIMEOUT_MS = 300L
+        private const val LONG_PRESS_TIMEOUT_MS = 500L
+        private const val KEYCODE = KeyEvent.KEYCODE_F15
+    }
+}
@@ -20,21 +20,8 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
-import android.hardware.display.DisplayManager;
 import android.os.IBinder;
 import android.util.Log;
-import android.view.Display;
-import android.view.Display.HdrCapabilities;
-
-import co.aospa.xiaomiparts.camera.NfcCameraService;
-import co.aospa.xiaomiparts.display.ColorService;
-import co.aospa.xiaomiparts.display.DcDimmingService;
-import co.aospa.xiaomiparts.doze.AodBrightnessService;
-import co.aospa.xiaomiparts.doze.PocketService;
-import co.aospa.xiaomiparts.gestures.GestureUtils;
-import co.aospa.xiaomiparts.thermal.ThermalUtils;
-import co.aospa.xiaomiparts.touch.HighTouchPollingService;
-import co.aospa.xiaomiparts.touch.TouchOrientationService;
 
 public class BootCompletedReceiver extends BroadcastReceiver {
 
@@ -48,24 +35,7 @@ public class BootCompletedReceiver extends BroadcastReceiver {
         }
 
         Log.i(TAG, "Boot completed, starting services");
-        ColorService.startService(context);
-        DcDimmingService.startService(context);
-        AodBrightnessService.startService(context);
-        PocketService.startService(context);
-        NfcCameraService.startService(context);
-        HighTouchPollingService.startService(context);
-        TouchOrientationService.startService(context);
-        ThermalUtils.startService(context);
-        GestureUtils.onBootCompleted(context);
-        overrideHdrTypes(context);
-    }
-
-    private static void overrideHdrTypes(Context context) {
-        // Override HDR types to enable Dolby Vision
-        final DisplayManager dm = context.getSystemService(DisplayManager.class);
-        dm.overrideHdrTypes(Display.DEFAULT_DISPLAY, new int[]{
-                HdrCapabilities.HDR_TYPE_DOLBY_VISION, HdrCapabilities.HDR_TYPE_HDR10,
-                HdrCapabilities.HDR_TYPE_HLG, HdrCapabilities.HDR_TYPE_HDR10_PLUS});
+        PartsService.startService(context);
     }
 
 }
@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2023 Paranoid Android
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package co.aospa.xiaomiparts;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.pm.PackageManager;
+import android.hardware.Sensor;
+import android.hardware.SensorManager;
+import android.hidl.manager.V1_0.IServiceManager;
+import android.os.Build;
+import android.os.SystemClock;
+import android.util.Log;
+
+import co.aospa.xiaomiparts.display.DcDimmingModule;
+import co.aospa.xiaomiparts.doze.AodBrightnessModule;
+import co.aospa.xiaomiparts.thermal.ThermalUtils;
+import co.aospa.xiaomiparts.touch.HighTouchPollingModule;
+import co.aospa.xiaomiparts.utils.DumpWriter;
+import co.aospa.xiaomiparts.utils.FileUtils;
+
+/**
+ * What hardware this build has.
+ *
+ * Capabilities that were found are kept per build fingerprint in device protected storage,
+ * so they are there before unlock and are only probed again after an update. Missing ones
+ * are probed again on every boot, so a HAL that registered late on the first boot does not
+ * stay disabled. HALs are looked up in the VINTF manifest rather than waited for, so
+ * probing never blocks on a HAL that is still starting. Probe off the main thread.
+ */
+public class CapabilityProbe {
+
+    private static final String TAG = "CapabilityProbe";
+
+    public static final int CAP_TOUCH_REPORT_RATE_NODE = 1 << 0;
+    public static final int CAP_THERMAL_SCONFIG = 1 << 1;
+    public static final int CAP_DISPLAY_FEATURE_HAL = 1 << 2;
+    public static final int CAP_TOUCH_FEATURE_HAL = 1 << 3;
+    public static final int CAP_FINGERPRINT_HAL = 1 << 4;
+    public static final int CAP_AOD_SENSOR = 1 << 5;
+    public static final int CAP_PROXIMITY_SENSOR = 1 << 6;
+    public static final int CAP_NFC = 1 << 7;
+    public static final int CAP_DC_DIMMING = 1 << 8;
+    public static final int CAP_POWERBUTTON_FPS = 1 << 9;
+
+    private static final String[] CAP_NAMES = {
+        "touch_report_rate_node",
+        "thermal_sconfig",
+        "display_feature_hal",
+        "touch_feature_hal",
+        "fingerprint_hal",
+        "aod_sensor",
+        "proximity_sensor",
+        "nfc",
+        "dc_dimming",
+        "powerbutton_fps",
+    };
+
+    /* bump when the set of capabilities changes */
+    private static final int PROBE_VERSION = 2;
+
+    private static final int ALL_CAPABILITIES = (1 << CAP_NAMES.length) - 1;
+
+    private static final String PREFS_NAME = "capabilities";
+    private static final String KEY_FINGERPRINT = "fingerprint";
+    private static final String KEY_VERSION = "version";
+    private static final String KEY_CAPABILITIES = "capabilities";
+
+    private static final String HAL_DISPLAY_FEATURE =
+            "vendor.xiaomi.hardware.displayfeature@1.0::IDisplayFeature";
+    private static final String HAL_TOUCH_FEATURE =
+            "vendor.xiaomi.hw.touchfeature@1.0::ITouchFeature";
+    private static final String HAL_FINGERPRINT =
+            "vendor.xiaomi.hardware.fingerprintextension@1.0::IXiaomiFingerprint";
+
+    private static CapabilityProbe sInstance;
+
+    private final int mCapabilities;
+    /* found on an earlier boot of this build */
+    private final int mCachedCapabilities;
+    private final long mProbeMs;
+
+    public static synchronized CapabilityProbe getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new CapabilityProbe(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private CapabilityProbe(Context context) {
+        final SharedPreferences prefs = context.createDeviceProtectedStorageContext()
+                .getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        // only what was found is cached, anything missing is probed again
+        mCachedCapabilities = Build.FINGERPRINT.equals(prefs.getString(KEY_FINGERPRINT, null))
+                && prefs.getInt(KEY_VERSION, 0) == PROBE_VERSION
+                ? prefs.getInt(KEY_CAPABILITIES, 0) : 0;
+        final int missing = ALL_CAPABILITIES & ~mCachedCapabilities;
+        if (missing == 0) {
+            mCapabilities = mCachedCapabilities;
+            mProbeMs = 0;
+            return;
+        }
+        final long start = SystemClock.uptimeMillis();
+        mCapabilities = mCachedCapabilities | probe(context, missing);
+        mProbeMs = SystemClock.uptimeMillis() - start;
+        if (mCapabilities != mCachedCapabilities) {
+            prefs.edit()
+                    .putString(KEY_FINGERPRINT, Build.FINGERPRINT)
+                    .putInt(KEY_VERSION, PROBE_VERSION)
+                    .putInt(KEY_CAPABILITIES, mCapabilities)
+                    .apply();
+        }
+        Log.i(TAG, "Probed " + getNames(missing) + ", found " + getNames(mCapabilities)
+                + " in " + mProbeMs + "ms");
+    }
+
+    public boolean has(int capability) {
+        return (mCapabilities & capability) == capability;
+    }
+
+    public void dump(DumpWriter dw) {
+        dw.put("cached", getNames(mCachedCapabilities))
+                .put("probeMs", mProbeMs);
+        for (int i = 0; i < CAP_NAMES.length; i++) {
+            dw.put(CAP_NAMES[i], (mCapabilities & (1 << i)) != 0);
+        }
+    }
+
+    /* checks only the capabilities in mask */
+    private static int probe(Context context, int mask) {
+        int capabilities = 0;
+        if ((mask & CAP_TOUCH_REPORT_RATE_NODE) != 0
+                && FileUtils.fileExists(HighTouchPollingModule.TS_NODE)) {
+            capabilities |= CAP_TOUCH_REPORT_RATE_NODE;
+        }
+        if ((mask & CAP_THERMAL_SCONFIG) != 0
+                && FileUtils.fileExists(ThermalUtils.THERMAL_SCONFIG)) {
+            capabilities |= CAP_THERMAL_SCONFIG;
+        }
+        if ((mask & CAP_DISPLAY_FEATURE_HAL) != 0 && isHalDeclared(HAL_DISPLAY_FEATURE)) {
+            capabilities |= CAP_DISPLAY_FEATURE_HAL;
+        }
+        if ((mask & CAP_TOUCH_FEATURE_HAL) != 0 && isHalDeclared(HAL_TOUCH_FEATURE)) {
+            capabilities |= CAP_TOUCH_FEATURE_HAL;
+        }
+        if ((mask & CAP_FINGERPRINT_HAL) != 0 && isHalDeclared(HAL_FINGERPRINT)) {
+            capabilities |= CAP_FINGERPRINT_HAL;
+        }
+        final SensorManager sensorManager = context.getSystemService(SensorManager.class);
+        if ((mask & CAP_AOD_SENSOR) != 0
+                && sensorManager.getDefaultSensor(AodBrightnessModule.SENSOR_TYPE_AOD) != null) {
+            capabilities |= CAP_AOD_SENSOR;
+        }
+        if ((mask & CAP_PROXIMITY_SENSOR) != 0
+                && sensorManager.getDefaultSensor(Sensor.TYPE_PROXIMITY) != null) {
+            capabilities |= CAP_PROXIMITY_SENSOR;
+        }
+        if ((mask & CAP_NFC) != 0
+                && context.getPackageManager().hasSystemFeature(PackageManager.FEATURE_NFC)) {
+            capabilities |= CAP_NFC;
+        }
+        if ((mask & CAP_DC_DIMMING) != 0 && DcDimmingModule.isSupported()) {
+            capabilities |= CAP_DC_DIMMING;
+        }
+        if ((mask & CAP_POWERBUTTON_FPS) != 0 && context.getResources().getBoolean(
+                com.android.internal.R.bool.config_is_powerbutton_fps)) {
+            capabilities |= CAP_POWERBUTTON_FPS;
+        }
+        return capabilities;
+    }
+
+    private static boolean isHalDeclared(String fqName) {
+        try {
+            return IServiceManager.getService().getTransport(fqName, "default")
+                    != IServiceManager.Transport.EMPTY;
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to look up " + fqName, e);
+            return false;
+        }
+    }
+
+    private static String getNames(int capabilities) {
+        final StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < CAP_NAMES.length; i++) {
+            if ((capabilities & (1 << i)) != 0) {
+                if (builder.length() > 0) {
+                    builder.append(',');
+                }
+                builder.append(CAP_NAMES[i]);
+            }
+        }
+        return builder.length() > 0 ? builder.toString() : "none";
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2023 Paranoid Android
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package co.aospa.xiaomiparts;
+
+import co.aospa.xiaomiparts.utils.DumpWriter;
+
+/**
+ * A feature hosted by {@link PartsService}.
+ *
+ * Once everything in {@link #getDependencies()} is ready, {@link #onPrepare} runs on a
+ * startup thread for any blocking setup, then the module is started on the main thread.
+ * Modules are stopped on the main thread and get the screen broadcasts from the host's
+ * shared receiver instead of registering their own.
+ */
+public interface PartsModule {
+
+    /* settings provider, reads user settings at startup */
+    int DEP_SETTINGS = 1 << 0;
+    /* DisplayStateTracker */
+    int DEP_DISPLAY = 1 << 1;
+    /* displayfeature HAL */
+    int DEP_DISPLAY_FEATURE = 1 << 2;
+    /* touchfeature HAL */
+    int DEP_TOUCH_FEATURE = 1 << 3;
+    /* fingerprint extension HAL */
+    int DEP_FINGERPRINT = 1 << 4;
+
+    default int getDependencies() {
+        return 0;
+    }
+
+    default void onPrepare(PartsService host) { }
+
+    void onStart(PartsService host);
+
+    void onStop();
+
+    default void onScreenOn() { }
+
+    default void onScreenOff() { }
+
+    default void onUserPresent() { }
+
+    /* state and counters under the module's own section */
+    void dump(DumpWriter dw);
+}
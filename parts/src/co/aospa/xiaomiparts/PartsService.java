@@ -0,0 +1,303 @@
+/*
+ * Copyright (C) 2023 Paranoid Android
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package co.aospa.xiaomiparts;
+
+import android.app.Service;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.database.ContentObserver;
+import android.net.Uri;
+import android.os.Debug;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.IBinder;
+import android.os.Process;
+import android.os.SystemClock;
+import android.os.UserHandle;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import co.aospa.xiaomiparts.camera.CameraPolicyModule;
+import co.aospa.xiaomiparts.display.ColorModule;
+import co.aospa.xiaomiparts.display.DcDimmingModule;
+import co.aospa.xiaomiparts.display.DfWrapper;
+import co.aospa.xiaomiparts.display.HdrModule;
+import co.aospa.xiaomiparts.display.RefreshRateModule;
+import co.aospa.xiaomiparts.doze.AodBrightnessModule;
+import co.aospa.xiaomiparts.doze.PocketModule;
+import co.aospa.xiaomiparts.gestures.FpDoubleTapModule;
+import co.aospa.xiaomiparts.thermal.ThermalModule;
+import co.aospa.xiaomiparts.touch.HighTouchPollingModule;
+import co.aospa.xiaomiparts.touch.TfWrapper;
+import co.aospa.xiaomiparts.touch.TouchOrientationModule;
+import co.aospa.xiaomiparts.utils.DumpWriter;
+import co.aospa.xiaomiparts.utils.ForegroundAppTracker;
+
+/**
+ * The one persistent service of the app, hosting every {@link PartsModule}.
+ *
+ * Modules share a single screen state receiver, a single settings observer that fans out
+ * by uri and a single worker thread, instead of each carrying their own. They are started
+ * by a {@link StartupScheduler}, so the main thread never waits for a HAL.
+ *
+ * dumpsys prints every value as a "section.key=value" line, see {@link DumpWriter}.
+ */
+public class PartsService extends Service {
+
+    private static final String TAG = "PartsService";
+
+    private static HandlerThread sWorkerThread;
+
+    private final Handler mHandler = new Handler();
+    /* started modules, in start order */
+    private final ArrayList<PartsModule> mModules = new ArrayList<>();
+    /* uri -> callbacks */
+    private final HashMap<Uri, ArrayList<Runnable>> mSettingCallbacks = new HashMap<>();
+
+    private StartupScheduler mStartupScheduler;
+
+    /* startup cost, measured from onCreate until all modules are started */
+    private long mCreateTime, mStartTime;
+    private long mStartupMs;
+    private long mHeapBefore, mHeapAfter;
+    private int mThreadsBefore, mThreadsAfter;
+    private int mScreenOnEvents, mScreenOffEvents, mUserPresentEvents, mSettingChanges;
+
+    private final ContentObserver mSettingObserver = new ContentObserver(mHandler) {
+        @Override
+        public void onChange(boolean selfChange, Uri uri) {
+            final ArrayList<Runnable> callbacks = mSettingCallbacks.get(uri);
+            if (callbacks == null) {
+                return;
+            }
+            mSettingChanges++;
+            for (Runnable callback : new ArrayList<>(callbacks)) {
+                callback.run();
+            }
+        }
+    };
+
+    private final StartupScheduler.Callback mStartupCallback = new StartupScheduler.Callback() {
+        @Override
+        public List<PartsModule> createModules(CapabilityProbe probe) {
+            // modules whose hardware is missing are never started
+            final ArrayList<PartsModule> modules = new ArrayList<>();
+            if (probe.has(CapabilityProbe.CAP_DISPLAY_FEATURE_HAL)) {
+                modules.add(new ColorModule());
+                if (probe.has(CapabilityProbe.CAP_DC_DIMMING)) {
+                    modules.add(new DcDimmingModule());
+                }
+                if (probe.has(CapabilityProbe.CAP_AOD_SENSOR)) {
+                    modules.add(new AodBrightnessModule());
+                }
+            }
+            modules.add(new RefreshRateModule());
+            if (probe.has(CapabilityProbe.CAP_PROXIMITY_SENSOR)) {
+                // pocket decisions need proximity
+                modules.add(new PocketModule());
+            }
+            modules.add(new CameraPolicyModule());
+            if (probe.has(CapabilityProbe.CAP_TOUCH_REPORT_RATE_NODE)
+                    || probe.has(CapabilityProbe.CAP_TOUCH_FEATURE_HAL)) {
+                modules.add(new HighTouchPollingModule());
+            }
+            if (probe.has(CapabilityProbe.CAP_TOUCH_FEATURE_HAL)) {
+                modules.add(new TouchOrientationModule());
+            }
+            if (probe.has(CapabilityProbe.CAP_THERMAL_SCONFIG)) {
+                modules.add(new ThermalModule());
+            }
+            modules.add(new HdrModule());
+            if (probe.has(CapabilityProbe.CAP_POWERBUTTON_FPS | CapabilityProbe.CAP_FINGERPRINT_HAL)) {
+                modules.add(new FpDoubleTapModule());
+            }
+            return modules;
+        }
+
+        @Override
+        public void onModuleStarted(PartsModule module) {
+            mModules.add(module);
+        }
+
+        @Override
+        public void onAllStarted() {
+            mStartupMs = SystemClock.uptimeMillis() - mStartTime;
+            mHeapAfter = getHeapUsage();
+            mThreadsAfter = getThreadCount();
+            Log.i(TAG, "Started " + mModules.size() + " modules in " + mStartupMs + "ms");
+        }
+    };
+
+    private final BroadcastReceiver mScreenStateReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            dlog("onReceive: " + intent.getAction());
+            switch (intent.getAction()) {
+                case Intent.ACTION_SCREEN_ON:
+                    mScreenOnEvents++;
+                    break;
+                case Intent.ACTION_SCREEN_OFF:
+                    mScreenOffEvents++;
+                    break;
+                case Intent.ACTION_USER_PRESENT:
+                    mUserPresentEvents++;
+                    break;
+            }
+            for (PartsModule module : mModules) {
+                switch (intent.getAction()) {
+                    case Intent.ACTION_SCREEN_ON:
+                        module.onScreenOn();
+                        break;
+                    case Intent.ACTION_SCREEN_OFF:
+                        module.onScreenOff();
+                        break;
+                    case Intent.ACTION_USER_PRESENT:
+                        module.onUserPresent();
+                        break;
+                }
+            }
+        }
+    };
+
+    public static void startService(Context context) {
+        context.startServiceAsUser(new Intent(context, PartsService.class), UserHandle.CURRENT);
+    }
+
+    /** The thread shared by the modules for work that should stay off the main thread. */
+    public static synchronized Handler getWorkerHandler() {
+        if (sWorkerThread == null) {
+            sWorkerThread = new HandlerThread("XiaomiParts-worker",
+                    Process.THREAD_PRIORITY_FOREGROUND);
+            sWorkerThread.start();
+        }
+        return sWorkerThread.getThreadHandler();
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        dlog("onCreate");
+        mCreateTime = SystemClock.elapsedRealtime();
+        mStartTime = SystemClock.uptimeMillis();
+        mHeapBefore = getHeapUsage();
+        mThreadsBefore = getThreadCount();
+
+        final IntentFilter filter = new IntentFilter(Intent.ACTION_SCREEN_ON);
+        filter.addAction(Intent.ACTION_SCREEN_OFF);
+        filter.addAction(Intent.ACTION_USER_PRESENT);
+        registerReceiver(mScreenStateReceiver, filter);
+
+        mStartupScheduler = new StartupScheduler(this, mHandler, mStartupCallback);
+        mStartupScheduler.start();
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        dlog("onStartCommand");
+        return START_STICKY;
+    }
+
+    @Override
+    public void onDestroy() {
+        dlog("onDestroy");
+        mStartupScheduler.cancel();
+        unregisterReceiver(mScreenStateReceiver);
+        for (int i = mModules.size() - 1; i >= 0; i--) {
+            mModules.get(i).onStop();
+        }
+        mModules.clear();
+        getContentResolver().unregisterContentObserver(mSettingObserver);
+        mSettingCallbacks.clear();
+        super.onDestroy();
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return null;
+    }
+
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter pw, String[] args) {
+        final DumpWriter dw = new DumpWriter(pw);
+        dw.section("service")
+                .put("uptimeMs", SystemClock.elapsedRealtime() - mCreateTime)
+                .put("processUptimeMs",
+                        SystemClock.elapsedRealtime() - Process.getStartElapsedRealtime())
+                .put("foregroundApp", ForegroundAppTracker.getInstance().getForegroundApp())
+                .put("modules", mModules.size())
+                .put("screenOnEvents", mScreenOnEvents)
+                .put("screenOffEvents", mScreenOffEvents)
+                .put("userPresentEvents", mUserPresentEvents)
+                .put("settingChanges", mSettingChanges)
+                .put("startupMs", mStartupMs)
+                .put("heapBefore", mHeapBefore)
+                .put("heapAfter", mHeapAfter)
+                .put("heapNow", getHeapUsage())
+                .put("threadsBefore", mThreadsBefore)
+                .put("threadsAfter", mThreadsAfter)
+                .put("threadsNow", getThreadCount());
+        CapabilityProbe.getInstance(this).dump(dw.section("capability"));
+        mStartupScheduler.dump(dw.section("startup"));
+        DfWrapper.dump(dw.section("displayfeature"));
+        TfWrapper.dump(dw.section("touchfeature"));
+        for (PartsModule module : mModules) {
+            module.dump(dw.section(module.getClass().getSimpleName()));
+        }
+    }
+
+    /** Runs the callback on the main thread whenever the setting at the uri changes. */
+    public void addSettingObserver(Uri uri, Runnable callback) {
+        ArrayList<Runnable> callbacks = mSettingCallbacks.get(uri);
+        if (callbacks == null) {
+            callbacks = new ArrayList<>();
+            mSettingCallbacks.put(uri, callbacks);
+            getContentResolver().registerContentObserver(uri, false, mSettingObserver,
+                    UserHandle.USER_CURRENT);
+        }
+        callbacks.add(callback);
+    }
+
+    public void removeSettingObserver(Runnable callback) {
+        for (ArrayList<Runnable> callbacks : mSettingCallbacks.values()) {
+            callbacks.remove(callback);
+        }
+    }
+
+    public <T extends PartsModule> T getModule(Class<T> moduleClass) {
+        for (PartsModule module : mModules) {
+            if (moduleClass.isInstance(module)) {
+                return moduleClass.cast(module);
+            }
+        }
+        return null;
+    }
+
+    /* java plus native heap in bytes */
+    private static long getHeapUsage() {
+        final Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory() + Debug.getNativeHeapAllocatedSize();
+    }
+
+    private static int getThreadCount() {
+        final String[] tasks = new File("/proc/self/task").list();
+        return tasks != null ? tasks.length : -1;
+    }
+
+    private static void dlog(String msg) {
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, msg);
+        }
+    }
+}
@@ -0,0 +1,300 @@
+/*
+ * Copyright (C) 2023 Paranoid Android
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package co.aospa.xiaomiparts;
+
+import android.os.Handler;
+import android.os.SystemClock;
+import android.provider.Settings;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import co.aospa.xiaomiparts.display.DfWrapper;
+import co.aospa.xiaomiparts.display.DisplayStateTracker;
+import co.aospa.xiaomiparts.gestures.GestureUtils;
+import co.aospa.xiaomiparts.touch.TfWrapper;
+import co.aospa.xiaomiparts.utils.DumpWriter;
+
+/**
+ * Starts modules as soon as what they depend on is ready.
+ *
+ * Every dependency is resolved once on a small pool, so waiting for a HAL only holds back
+ * the modules that need it. A module is prepared on the pool once its dependencies are
+ * ready and then started on the main thread. The pool is shut down once every module has
+ * started.
+ */
+class StartupScheduler {
+
+    private static final String TAG = "StartupScheduler";
+
+    private static final int POOL_SIZE = 4;
+
+    private static final int[] DEPENDENCIES = {
+        PartsModule.DEP_SETTINGS,
+        PartsModule.DEP_DISPLAY,
+        PartsModule.DEP_DISPLAY_FEATURE,
+        PartsModule.DEP_TOUCH_FEATURE,
+        PartsModule.DEP_FINGERPRINT,
+    };
+
+    /* what has to be present for each dependency, 0 if always there */
+    private static final int[] DEPENDENCY_CAPABILITIES = {
+        0,
+        0,
+        CapabilityProbe.CAP_DISPLAY_FEATURE_HAL,
+        CapabilityProbe.CAP_TOUCH_FEATURE_HAL,
+        CapabilityProbe.CAP_FINGERPRINT_HAL,
+    };
+
+    private static final String[] DEPENDENCY_NAMES = {
+        "settings",
+        "display",
+        "display_feature",
+        "touch_feature",
+        "fingerprint",
+    };
+
+    interface Callback {
+        /* on the main thread, once the capabilities are probed */
+        List<PartsModule> createModules(CapabilityProbe probe);
+
+        /* on the main thread, not for modules whose onStart threw */
+        void onModuleStarted(PartsModule module);
+
+        /* on the main thread */
+        void onAllStarted();
+    }
+
+    /* everything but module is guarded by the scheduler lock */
+    private final class Entry {
+        final PartsModule module;
+        /* dependency bits not resolved yet */
+        int pending;
+        long readyMs, preparedMs, startedMs, startMs;
+        String thread;
+        /* onStart threw, the module is not handed to the callback */
+        boolean failed;
+
+        Entry(PartsModule module) {
+            this.module = module;
+            this.pending = module.getDependencies();
+        }
+
+        @Override
+        public String toString() {
+            return module.getClass().getSimpleName()
+                    + " deps=" + getDependencyNames(module.getDependencies())
+                    + " ready=+" + readyMs + "ms prepared=+" + preparedMs
+                    + "ms started=+" + startedMs + "ms (onStart " + startMs + "ms)"
+                    + " thread=" + thread + (failed ? " failed" : "");
+        }
+    }
+
+    private final PartsService mHost;
+    private final Handler mMainHandler;
+    private final Callback mCallback;
+    private final ArrayList<Entry> mEntries = new ArrayList<>();
+    private final long[] mDependencyMs = new long[DEPENDENCIES.length];
+    private final boolean[] mDependencyAvailable = new boolean[DEPENDENCIES.length];
+    private ExecutorService mExecutor;
+    private long mStartTime;
+    private long mProbeMs;
+    private int mStarted;
+    private boolean mCancelled;
+
+    StartupScheduler(PartsService host, Handler mainHandler, Callback callback) {
+        mHost = host;
+        mMainHandler = mainHandler;
+        mCallback = callback;
+    }
+
+    synchronized void start() {
+        mStartTime = SystemClock.uptimeMillis();
+        final AtomicInteger threadCount = new AtomicInteger();
+        mExecutor = Executors.newFixedThreadPool(POOL_SIZE, (runnable) ->
+                new Thread(runnable, "XiaomiParts-startup-" + threadCount.incrementAndGet()));
+        // probing reads the VINTF manifest and sensor list, keep it off the main thread
+        mExecutor.execute(() -> {
+            final CapabilityProbe probe = CapabilityProbe.getInstance(mHost);
+            synchronized (this) {
+                mProbeMs = SystemClock.uptimeMillis() - mStartTime;
+            }
+            mMainHandler.post(() -> schedule(probe));
+        });
+    }
+
+    /* on the main thread */
+    private synchronized void schedule(CapabilityProbe probe) {
+        if (mCancelled) {
+            return;
+        }
+        // the modules' handlers need the main looper, so they are created here
+        final List<PartsModule> modules = mCallback.createModules(probe);
+        int needed = 0;
+        for (PartsModule module : modules) {
+            final Entry entry = new Entry(module);
+            mEntries.add(entry);
+            needed |= entry.pending;
+        }
+        // independent modules first so they are not queued behind a HAL wait
+        for (Entry entry : mEntries) {
+            if (entry.pending == 0) {
+                schedulePrepare(entry);
+            }
+        }
+        for (int i = 0; i < DEPENDENCIES.length; i++) {
+            if ((needed & DEPENDENCIES[i]) != 0) {
+                final int index = i;
+                mExecutor.execute(() -> resolveDependency(index));
+            }
+        }
+        if (mEntries.isEmpty()) {
+            mExecutor.shutdown();
+            mMainHandler.post(mCallback::onAllStarted);
+        }
+    }
+
+    synchronized void cancel() {
+        mCancelled = true;
+        if (mExecutor != null) {
+            mExecutor.shutdownNow();
+        }
+    }
+
+    synchronized void dump(DumpWriter dw) {
+        dw.put("probeMs", mProbeMs);
+        for (int i = 0; i < DEPENDENCIES.length; i++) {
+            dw.section("dependency").section(DEPENDENCY_NAMES[i])
+                    .put("readyMs", mDependencyMs[i])
+                    .put("available", mDependencyAvailable[i]);
+        }
+        for (Entry entry : mEntries) {
+            dw.section("module").section(entry.module.getClass().getSimpleName())
+                    .put("deps", getDependencyNames(entry.module.getDependencies()))
+                    .put("readyMs", entry.readyMs)
+                    .put("preparedMs", entry.preparedMs)
+                    .put("startedMs", entry.startedMs)
+                    .put("onStartMs", entry.startMs)
+                    .put("thread", entry.thread)
+                    .put("failed", entry.failed);
+        }
+    }
+
+    private void resolveDependency(int index) {
+        // a HAL that is not in the manifest would only make getService() fail slowly
+        final boolean available = CapabilityProbe.getInstance(mHost)
+                .has(DEPENDENCY_CAPABILITIES[index]) && waitFor(DEPENDENCIES[index]);
+        synchronized (this) {
+            mDependencyMs[index] = SystemClock.uptimeMillis() - mStartTime;
+            mDependencyAvailable[index] = available;
+            if (!available) {
+                // modules cope with a missing HAL, start them anyway
+                Log.w(TAG, DEPENDENCY_NAMES[index] + " is not available");
+            }
+            for (Entry entry : mEntries) {
+                if ((entry.pending & DEPENDENCIES[index]) != 0) {
+                    entry.pending &= ~DEPENDENCIES[index];
+                    if (entry.pending == 0) {
+                        schedulePrepare(entry);
+                    }
+                }
+            }
+        }
+    }
+
+    /* blocks until the dependency is up, false if it never will be */
+    private boolean waitFor(int dependency) {
+        switch (dependency) {
+            case PartsModule.DEP_SETTINGS:
+                // the first read binds the settings provider and sets up its cache
+                Settings.System.getInt(mHost.getContentResolver(),
+                        Settings.System.SCREEN_BRIGHTNESS, 0);
+                return true;
+            case PartsModule.DEP_DISPLAY:
+                DisplayStateTracker.getInstance(mHost);
+                return true;
+            case PartsModule.DEP_DISPLAY_FEATURE:
+                return DfWrapper.getDisplayFeature() != null;
+            case PartsModule.DEP_TOUCH_FEATURE:
+                return TfWrapper.getITouchFeature() != null;
+            case PartsModule.DEP_FINGERPRINT:
+                return GestureUtils.waitForService();
+            default:
+                return false;
+        }
+    }
+
+    /* with the lock held */
+    private void schedulePrepare(Entry entry) {
+        if (mCancelled) {
+            return;
+        }
+        entry.readyMs = SystemClock.uptimeMillis() - mStartTime;
+        mExecutor.execute(() -> {
+            synchronized (this) {
+                entry.thread = Thread.currentThread().getName();
+            }
+            try {
+                entry.module.onPrepare(mHost);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Failed to prepare " + entry.module.getClass().getSimpleName(), e);
+            }
+            synchronized (this) {
+                entry.preparedMs = SystemClock.uptimeMillis() - mStartTime;
+            }
+            mMainHandler.post(() -> startModule(entry));
+        });
+    }
+
+    /* on the main thread */
+    private void startModule(Entry entry) {
+        synchronized (this) {
+            if (mCancelled) {
+                return;
+            }
+        }
+        final long start = SystemClock.uptimeMillis();
+        boolean failed = false;
+        try {
+            entry.module.onStart(mHost);
+        } catch (RuntimeException e) {
+            // a broken module must not take the service and the other modules down
+            Log.e(TAG, "Failed to start " + entry.module.getClass().getSimpleName(), e);
+            failed = true;
+        }
+        if (!failed) {
+            mCallback.onModuleStarted(entry.module);
+        }
+        synchronized (this) {
+            entry.failed = failed;
+            entry.startMs = SystemClock.uptimeMillis() - start;
+            entry.startedMs = SystemClock.uptimeMillis() - mStartTime;
+            Log.i(TAG, "Started " + entry);
+            if (++mStarted == mEntries.size()) {
+                mExecutor.shutdown();
+                mCallback.onAllStarted();
+            }
+        }
+    }
+
+    private static String getDependencyNames(int dependencies) {
+        final StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < DEPENDENCIES.length; i++) {
+            if ((dependencies & DEPENDENCIES[i]) != 0) {
+                if (builder.length() > 0) {
+                    builder.append(',');
+                }
+                builder.append(DEPENDENCY_NAMES[i]);
+            }
+        }
+        return builder.length() > 0 ? builder.toString() : "none";
+    }
+}
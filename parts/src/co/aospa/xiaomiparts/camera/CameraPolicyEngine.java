@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2023 Paranoid Android
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package co.aospa.xiaomiparts.camera;
+
+import android.util.Log;
+
+import java.util.HashMap;
+
+import co.aospa.xiaomiparts.utils.DumpWriter;
+
+/**
+ * Maps camera sessions to the actions they should trigger.
+ *
+ * Rules are "cameraId|package=action[,action...]" where either side may be "*", and an
+ * empty action list exempts the session. The most specific rule wins: camera and package,
+ * then camera only, then package only, then the catch-all. Every action is reference
+ * counted over the open sessions, so it starts with the first session that needs it and
+ * stops when the last one closes. Not thread safe.
+ */
+class CameraPolicyEngine {
+
+    private static final String TAG = "CameraPolicyEngine";
+
+    static final int ACTION_PAUSE_NFC = 0;
+    static final int ACTION_THERMAL_CAMERA = 1;
+    static final int ACTION_TOUCH_HIGH_RATE = 2;
+    private static final int ACTION_COUNT = 3;
+
+    private static final String[] ACTION_NAMES = {
+        "pause_nfc",
+        "thermal_camera",
+        "touch_high_rate",
+    };
+
+    private static final String ANY = "*";
+
+    interface ActionHandler {
+        void setActionActive(int action, boolean active);
+    }
+
+    /* camera id -> package -> action bits */
+    private final HashMap<String, HashMap<String, Integer>> mRules = new HashMap<>();
+    /* camera id -> action bits of its open session */
+    private final HashMap<String, Integer> mSessions = new HashMap<>();
+    private final int[] mActionRefs = new int[ACTION_COUNT];
+    private final int[] mActionStarts = new int[ACTION_COUNT];
+    private final ActionHandler mHandler;
+
+    CameraPolicyEngine(String[] rules, ActionHandler handler) {
+        mHandler = handler;
+        for (String rule : rules) {
+            try {
+                final String[] parts = rule.split("=", -1);
+                final String[] key = parts[0].split("\\|");
+                HashMap<String, Integer> packageRules = mRules.get(key[0].trim());
+                if (packageRules == null) {
+                    packageRules = new HashMap<>();
+                    mRules.put(key[0].trim(), packageRules);
+                }
+                packageRules.put(key[1].trim(), parseActions(parts[1]));
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Ignoring invalid camera policy rule: " + rule);
+            }
+        }
+    }
+
+    boolean isEmpty() {
+        return mRules.isEmpty();
+    }
+
+    void onCameraOpened(String cameraId, String packageName) {
+        final int actions = getActions(cameraId, packageName);
+        dlog("onCameraOpened: id=" + cameraId + " package=" + packageName
+                + " actions=" + actions);
+        // a camera can be taken over by another client without being closed first, only
+        // what differs from its current session is started or stopped
+        updateSession(cameraId, actions);
+    }
+
+    void onCameraClosed(String cameraId) {
+        dlog("onCameraClosed: id=" + cameraId);
+        updateSession(cameraId, 0);
+    }
+
+    private void updateSession(String cameraId, int actions) {
+        final Integer current = mSessions.get(cameraId);
+        final int oldActions = current != null ? current : 0;
+        if (actions != 0) {
+            mSessions.put(cameraId, actions);
+        } else {
+            mSessions.remove(cameraId);
+        }
+        for (int action = 0; action < ACTION_COUNT; action++) {
+            final int bit = 1 << action;
+            if ((actions & bit) != 0 && (oldActions & bit) == 0 && mActionRefs[action]++ == 0) {
+                mActionStarts[action]++;
+                mHandler.setActionActive(action, true);
+            } else if ((actions & bit) == 0 && (oldActions & bit) != 0
+                    && --mActionRefs[action] == 0) {
+                mHandler.setActionActive(action, false);
+            }
+        }
+    }
+
+    void dump(DumpWriter dw) {
+        dw.put("openCameras", String.join(",", mSessions.keySet()));
+        for (int action = 0; action < ACTION_COUNT; action++) {
+            dw.section(ACTION_NAMES[action])
+                    .put("refs", mActionRefs[action])
+                    .put("starts", mActionStarts[action]);
+        }
+    }
+
+    private int getActions(String cameraId, String packageName) {
+        Integer actions = getRule(cameraId, packageName);
+        if (actions == null) {
+            actions = getRule(cameraId, ANY);
+        }
+        if (actions == null) {
+            actions = getRule(ANY, packageName);
+        }
+        if (actions == null) {
+            actions = getRule(ANY, ANY);
+        }
+        return actions != null ? actions : 0;
+    }
+
+    private Integer getRule(String cameraId, String packageName) {
+        final HashMap<String, Integer> packageRules = mRules.get(cameraId);
+        return packageRules != null ? packageRules.get(packageName) : null;
+    }
+
+    private static int parseActions(String actions) {
+        int bits = 0;
+        if (actions.trim().isEmpty()) {
+            return bits;
+        }
+        for (String name : actions.split(",")) {
+            bits |= 1 << parseAction(name.trim());
+        }
+        return bits;
+    }
+
+    private static int parseAction(String name) {
+        for (int action = 0; action < ACTION_COUNT; action++) {
+            if (ACTION_NAMES[action].equals(name)) {
+                return action;
+            }
+        }
+        throw new IllegalArgumentException("Unknown camera policy action " + name);
+    }
+
+    private static void dlog(String msg) {
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, msg);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2023 Paranoid Android
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package co.aospa.xiaomiparts.camera;
+
+import android.hardware.camera2.CameraManager;
+import android.os.Handler;
+import android.os.SystemProperties;
+import android.util.Log;
+
+import co.aospa.xiaomiparts.CapabilityProbe;
+import co.aospa.xiaomiparts.PartsModule;
+import co.aospa.xiaomiparts.PartsService;
+import co.aospa.xiaomiparts.R;
+import co.aospa.xiaomiparts.thermal.ThermalModule;
+import co.aospa.xiaomiparts.touch.HighTouchPollingModule;
+import co.aospa.xiaomiparts.utils.DumpWriter;
+
+/**
+ * Runs the actions of config_cameraPolicyRules while matching camera sessions are open.
+ */
+public class CameraPolicyModule implements PartsModule {
+
+    private static final String TAG = "CameraPolicyModule";
+    private static final String SYSPROP = "persist.nfc.camera.pause_polling";
+
+    private PartsService mHost;
+    private CameraManager mCameraManager;
+    private CameraPolicyEngine mPolicyEngine;
+    private NfcPauseManager mNfcPauseManager;
+    private int mCameraEvents;
+
+    private final Handler mHandler = new Handler();
+
+    private final CameraManager.AvailabilityCallback mCameraCallback =
+            new CameraManager.AvailabilityCallback() {
+        @Override
+        public void onCameraOpened(String cameraId, String packageId) {
+            dlog("onCameraOpened id=" + cameraId + " package=" + packageId);
+            mCameraEvents++;
+            mPolicyEngine.onCameraOpened(cameraId, packageId);
+        }
+
+        @Override
+        public void onCameraClosed(String cameraId) {
+            dlog("onCameraClosed id=" + cameraId);
+            mCameraEvents++;
+            mPolicyEngine.onCameraClosed(cameraId);
+        }
+    };
+
+    private final CameraPolicyEngine.ActionHandler mActionHandler = (action, active) -> {
+        Log.i(TAG, "Camera policy action " + action + " active=" + active);
+        switch (action) {
+            case CameraPolicyEngine.ACTION_PAUSE_NFC:
+                if (mNfcPauseManager != null) {
+                    mNfcPauseManager.setPaused(active);
+                }
+                break;
+            case CameraPolicyEngine.ACTION_THERMAL_CAMERA:
+                final ThermalModule thermal = mHost.getModule(ThermalModule.class);
+                if (thermal != null) {
+                    thermal.setCameraActive(active);
+                }
+                break;
+            case CameraPolicyEngine.ACTION_TOUCH_HIGH_RATE:
+                final HighTouchPollingModule touchPolling =
+                        mHost.getModule(HighTouchPollingModule.class);
+                if (touchPolling != null) {
+                    touchPolling.setCameraActive(active);
+                }
+                break;
+        }
+    };
+
+    @Override
+    public void onStart(PartsService host) {
+        mHost = host;
+        dlog("onStart");
+        mCameraManager = mHost.getSystemService(CameraManager.class);
+        mPolicyEngine = new CameraPolicyEngine(
+                mHost.getResources().getStringArray(R.array.config_cameraPolicyRules),
+                mActionHandler);
+        if (!CapabilityProbe.getInstance(mHost).has(CapabilityProbe.CAP_NFC)) {
+            Log.i(TAG, "No nfc on this device");
+        } else if (SystemProperties.getBoolean(SYSPROP, false)) {
+            Log.i(TAG, "Nfc polling pause disabled via system prop");
+        } else {
+            mNfcPauseManager = new NfcPauseManager(mHost, mHandler);
+        }
+        mCameraManager.registerAvailabilityCallback(mCameraCallback, mHandler);
+    }
+
+    @Override
+    public void onStop() {
+        dlog("onStop");
+        mCameraManager.unregisterAvailabilityCallback(mCameraCallback);
+        if (mNfcPauseManager != null) {
+            mNfcPauseManager.setPaused(false);
+        }
+    }
+
+    @Override
+    public void onScreenOn() {
+        if (mNfcPauseManager != null) {
+            mNfcPauseManager.onScreenOn();
+        }
+    }
+
+    @Override
+    public void dump(DumpWriter dw) {
+        dw.put("cameraEvents", mCameraEvents);
+        mPolicyEngine.dump(dw.section("policy"));
+        if (mNfcPauseManager != null) {
+            mNfcPauseManager.dump(dw.section("nfcPause"));
+        }
+    }
+
+    private static void dlog(String msg) {
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, msg);
+        }
+    }
+}
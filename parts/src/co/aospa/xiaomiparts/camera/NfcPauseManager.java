@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2023 Paranoid Android
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package co.aospa.xiaomiparts.camera;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.nfc.NfcAdapter;
+import android.os.Handler;
+import android.os.PowerManager;
+import android.os.SystemClock;
+import android.util.Log;
+
+import co.aospa.xiaomiparts.utils.DumpWriter;
+
+/**
+ * Keeps NFC polling paused for as long as a session lasts.
+ *
+ * The NFC stack caps a pause at MAX_POLLING_PAUSE_TIMEOUT, so the pause is renewed just
+ * before it runs out. NFC does not poll with the screen off and nothing polls while it is
+ * disabled, so renewals are skipped then and the pause is taken again once the screen
+ * turns on or NFC is enabled.
+ */
+class NfcPauseManager {
+
+    private static final String TAG = "NfcPauseManager";
+
+    private static final int MAX_POLLING_PAUSE_TIMEOUT = 40000;
+    /* renew this long before the pause runs out */
+    private static final long RENEW_MARGIN_MS = 500;
+
+    private final Context mContext;
+    private final Handler mHandler;
+    private final PowerManager mPowerManager;
+    private NfcAdapter mNfcAdapter;
+
+    private boolean mIsSessionActive;
+    /* uptime when the current pause runs out, 0 if not paused */
+    private long mPauseDeadline;
+
+    private int mSessions, mSessionRenewals, mLastSessionRenewals, mRenewals;
+
+    private final Runnable mRenewRunnable = this::pausePolling;
+
+    private final BroadcastReceiver mReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            final int state = intent.getIntExtra(NfcAdapter.EXTRA_ADAPTER_STATE,
+                    NfcAdapter.STATE_OFF);
+            dlog("Received ACTION_ADAPTER_STATE_CHANGED state=" + state);
+            if (state == NfcAdapter.STATE_ON) {
+                // the stack starts polling again, an earlier pause is gone
+                mPauseDeadline = 0;
+                pausePolling();
+            }
+        }
+    };
+
+    NfcPauseManager(Context context, Handler handler) {
+        mContext = context;
+        mHandler = handler;
+        mPowerManager = context.getSystemService(PowerManager.class);
+    }
+
+    void setPaused(boolean paused) {
+        if (paused == mIsSessionActive) {
+            return;
+        }
+        mIsSessionActive = paused;
+        if (paused) {
+            Log.i(TAG, "Session started, pause polling");
+            mSessions++;
+            mSessionRenewals = 0;
+            mContext.registerReceiver(mReceiver,
+                    new IntentFilter(NfcAdapter.ACTION_ADAPTER_STATE_CHANGED), null, mHandler);
+            pausePolling();
+        } else {
+            Log.i(TAG, "Session ended after " + mSessionRenewals + " renewals, resume polling");
+            mLastSessionRenewals = mSessionRenewals;
+            mContext.unregisterReceiver(mReceiver);
+            mHandler.removeCallbacks(mRenewRunnable);
+            resumePolling();
+        }
+    }
+
+    void onScreenOn() {
+        dlog("onScreenOn");
+        if (mPauseDeadline - RENEW_MARGIN_MS > SystemClock.uptimeMillis()) {
+            // still paused, the renewal is already scheduled
+            return;
+        }
+        pausePolling();
+    }
+
+    void dump(DumpWriter dw) {
+        final long remaining = mPauseDeadline - SystemClock.uptimeMillis();
+        dw.put("sessionActive", mIsSessionActive)
+                .put("pauseRemainingMs", mPauseDeadline != 0 ? Math.max(remaining, 0) : 0)
+                .put("sessions", mSessions)
+                .put("renewals", mRenewals)
+                .put("sessionRenewals", mSessionRenewals)
+                .put("lastSessionRenewals", mLastSessionRenewals);
+    }
+
+    private void pausePolling() {
+        mHandler.removeCallbacks(mRenewRunnable);
+        if (!mIsSessionActive) {
+            return;
+        }
+        final NfcAdapter adapter = getNfcAdapter();
+        if (adapter == null) {
+            Log.e(TAG, "pausePolling: NfcAdapter is null!");
+            return;
+        }
+        if (!mPowerManager.isInteractive() || !adapter.isEnabled()) {
+            // taken again on screen on or when nfc is enabled
+            dlog("pausePolling: screen off or nfc disabled, skipping");
+            mPauseDeadline = 0;
+            return;
+        }
+        final long now = SystemClock.uptimeMillis();
+        if (mPauseDeadline > now) {
+            mRenewals++;
+            mSessionRenewals++;
+        }
+        adapter.pausePolling(MAX_POLLING_PAUSE_TIMEOUT);
+        mPauseDeadline = now + MAX_POLLING_PAUSE_TIMEOUT;
+        mHandler.postAtTime(mRenewRunnable, mPauseDeadline - RENEW_MARGIN_MS);
+    }
+
+    private void resumePolling() {
+        if (mPauseDeadline <= SystemClock.uptimeMillis()) {
+            // already resumed by the nfc stack
+            mPauseDeadline = 0;
+            return;
+        }
+        mPauseDeadline = 0;
+        final NfcAdapter adapter = getNfcAdapter();
+        if (adapter != null && adapter.isEnabled()) {
+            adapter.resumePolling();
+        }
+    }
+
+    private NfcAdapter getNfcAdapter() {
+        if (mNfcAdapter == null) {
+            dlog("getNfcAdapter: mNfcAdapter=null");
+            try {
+                mNfcAdapter = NfcAdapter.getDefaultAdapter(mContext);
+            } catch (Exception e) {
+                Log.e(TAG, "getNfcAdapter failed!", e);
+            }
+        }
+        return mNfcAdapter;
+    }
+
+    private static void dlog(String msg) {
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, msg);
+        }
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2023 Paranoid Android
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package co.aospa.xiaomiparts.display;
+
+import android.content.res.Resources;
+import android.util.Log;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+import co.aospa.xiaomiparts.R;
+import co.aospa.xiaomiparts.utils.DumpWriter;
+
+/**
+ * Color mode -> displayfeature command sequence, compiled from config_colorModeTable.
+ *
+ * Sequences are stored back to back as (mode, value, cookie) triples in one array, indexed
+ * by the sorted color modes so that lookups are a binary search over primitives.
+ */
+class ColorModeTable {
+
+    private static final String TAG = "ColorModeTable";
+
+    /* sorted color modes */
+    private final int[] mColorModes;
+    /* mColorModes[i] owns mCommands[mOffsets[i]..mOffsets[i + 1]) */
+    private final int[] mOffsets;
+    private final int[] mCommands;
+
+    static ColorModeTable fromResources(Resources res) {
+        return parse(res.getStringArray(R.array.config_colorModeTable));
+    }
+
+    /* "colorMode:mode,value,cookie[;mode,value,cookie...]" */
+    static ColorModeTable parse(String[] entries) {
+        int[][] rows = new int[entries.length][];
+        int count = 0;
+        for (String entry : entries) {
+            try {
+                final String[] parts = entry.trim().split(":");
+                final String[] commands = parts[1].split(";");
+                final int[] row = new int[1 + commands.length * 3];
+                row[0] = Integer.parseInt(parts[0].trim());
+                for (int i = 0; i < commands.length; i++) {
+                    final String[] params = commands[i].split(",");
+                    if (params.length != 3) {
+                        throw new IllegalArgumentException("expected mode,value,cookie");
+                    }
+                    for (int j = 0; j < 3; j++) {
+                        row[1 + i * 3 + j] = Integer.parseInt(params[j].trim());
+                    }
+                }
+                rows[count++] = row;
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Ignoring invalid entry: " + entry, e);
+            }
+        }
+        rows = Arrays.copyOf(rows, count);
+        // stable, so the first of any duplicates stays first
+        Arrays.sort(rows, Comparator.comparingInt(row -> row[0]));
+        int unique = 0;
+        for (int i = 0; i < rows.length; i++) {
+            if (unique > 0 && rows[i][0] == rows[unique - 1][0]) {
+                Log.w(TAG, "Duplicate color mode " + rows[i][0] + ", using the first entry");
+                continue;
+            }
+            rows[unique++] = rows[i];
+        }
+        return new ColorModeTable(Arrays.copyOf(rows, unique));
+    }
+
+    private ColorModeTable(int[][] rows) {
+        int commandsLength = 0;
+        for (int[] row : rows) {
+            commandsLength += row.length - 1;
+        }
+        mColorModes = new int[rows.length];
+        mOffsets = new int[rows.length + 1];
+        mCommands = new int[commandsLength];
+        int offset = 0;
+        for (int i = 0; i < rows.length; i++) {
+            mColorModes[i] = rows[i][0];
+            mOffsets[i] = offset;
+            System.arraycopy(rows[i], 1, mCommands, offset, rows[i].length - 1);
+            offset += rows[i].length - 1;
+        }
+        mOffsets[rows.length] = offset;
+    }
+
+    /** Returns the index of the given color mode, or a negative value if there is none. */
+    int indexOf(int colorMode) {
+        return Arrays.binarySearch(mColorModes, colorMode);
+    }
+
+    int getColorMode(int index) {
+        return mColorModes[index];
+    }
+
+    /** Sends the command sequence at the given index to displayfeature. */
+    void apply(int index) {
+        for (int i = mOffsets[index]; i < mOffsets[index + 1]; i += 3) {
+            DfWrapper.setDisplayFeature(mCommands[i], mCommands[i + 1], mCommands[i + 2]);
+        }
+    }
+
+    /* one "mode,value,cookie;..." command sequence per color mode */
+    void dump(DumpWriter dw) {
+        for (int i = 0; i < mColorModes.length; i++) {
+            final StringBuilder sb = new StringBuilder();
+            for (int j = mOffsets[i]; j < mOffsets[i + 1]; j += 3) {
+                sb.append(j == mOffsets[i] ? "" : ";").append(mCommands[j]).append(',')
+                        .append(mCommands[j + 1]).append(',').append(mCommands[j + 2]);
+            }
+            dw.put(Integer.toString(mColorModes[i]), sb);
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2023 Paranoid Android
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package co.aospa.xiaomiparts.display;
+
+import static android.provider.Settings.System.DISPLAY_COLOR_MODE;
+
+import android.os.SystemProperties;
+import android.os.UserHandle;
+import android.provider.Settings;
+import android.util.Log;
+
+import java.util.HashMap;
+
+import co.aospa.xiaomiparts.PartsModule;
+import co.aospa.xiaomiparts.PartsService;
+import co.aospa.xiaomiparts.R;
+import co.aospa.xiaomiparts.utils.DumpWriter;
+import co.aospa.xiaomiparts.utils.ForegroundAppTracker;
+
+public class ColorModule implements PartsModule {
+
+    private static final String TAG = "ColorModule";
+
+    private static final int DEFAULT_COLOR_MODE = SystemProperties.getInt(
+            "persist.sys.sf.native_mode", 0);
+
+    private PartsService mHost;
+    private DisplayStateTracker mDisplayStateTracker;
+    private ForegroundAppTracker mForegroundAppTracker;
+
+    /* package -> color mode, overrides the global setting while in the foreground */
+    private final HashMap<String, Integer> mAppColorModes = new HashMap<>();
+    private int mColorMode;
+
+    private final Runnable mSettingObserver = () -> {
+        dlog("SettingObserver: onChange");
+        updateColorModeSetting();
+    };
+
+    private final ForegroundAppTracker.Callback mForegroundAppCallback = (packageName) -> {
+        setCurrentColorMode();
+    };
+
+    @Override
+    public int getDependencies() {
+        return DEP_SETTINGS | DEP_DISPLAY | DEP_DISPLAY_FEATURE;
+    }
+
+    @Override
+    public void onStart(PartsService host) {
+        mHost = host;
+        dlog("onStart");
+        mDisplayStateTracker = DisplayStateTracker.getInstance(mHost);
+        mForegroundAppTracker = ForegroundAppTracker.getInstance();
+        loadAppColorModes();
+        mHost.addSettingObserver(Settings.System.getUriFor(DISPLAY_COLOR_MODE), mSettingObserver);
+        updateColorModeSetting();
+        if (!mAppColorModes.isEmpty()) {
+            mForegroundAppTracker.addCallback(mForegroundAppCallback);
+        }
+    }
+
+    @Override
+    public void onStop() {
+        dlog("onStop");
+        mHost.removeSettingObserver(mSettingObserver);
+        mForegroundAppTracker.removeCallback(mForegroundAppCallback);
+    }
+
+    @Override
+    public void dump(DumpWriter dw) {
+        dw.put("userColorMode", mColorMode);
+        mDisplayStateTracker.dump(dw.section("displayState"));
+    }
+
+    /* "package=colorMode" */
+    private void loadAppColorModes() {
+        for (String entry : mHost.getResources().getStringArray(
+                R.array.config_appColorModes)) {
+            final String[] parts = entry.split("=");
+            try {
+                mAppColorModes.put(parts[0].trim(), Integer.parseInt(parts[1].trim()));
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Ignoring invalid app color mode: " + entry);
+            }
+        }
+        dlog("loadAppColorModes: " + mAppColorModes);
+    }
+
+    private void updateColorModeSetting() {
+        mColorMode = Settings.System.getIntForUser(mHost.getContentResolver(),
+                DISPLAY_COLOR_MODE, DEFAULT_COLOR_MODE, UserHandle.USER_CURRENT);
+        setCurrentColorMode();
+    }
+
+    private void setCurrentColorMode() {
+        final Integer appColorMode = mAppColorModes.get(mForegroundAppTracker.getForegroundApp());
+        final int colorMode = appColorMode != null ? appColorMode : mColorMode;
+        dlog("setCurrentColorMode: " + colorMode + " appColorMode=" + appColorMode);
+        mDisplayStateTracker.setColorMode(colorMode);
+    }
+
+    private static void dlog(String msg) {
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, msg);
+        }
+    }
+}
@@ -0,0 +1,26 @@
+/*
+ * Copyright (C) 2023 Paranoid Android
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package co.aospa.xiaomiparts.display;
+
+import android.os.Bundle;
+
+import com.android.settingslib.collapsingtoolbar.CollapsingToolbarBaseActivity;
+import com.android.settingslib.widget.R;
+
+/* enabled by DcDimmingModule where DC dimming is supported */
+public class DcDimmingActivity extends CollapsingToolbarBaseActivity {
+
+    private static final String TAG = "dc_dimming";
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+
+        getFragmentManager().beginTransaction().replace(R.id.content_frame,
+                new DcDimmingFragment(), TAG).commit();
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2023 Paranoid Android
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package co.aospa.xiaomiparts.display;
+
+import android.os.Bundle;
+import android.os.UserHandle;
+import android.provider.Settings;
+import android.widget.Switch;
+
+import androidx.preference.PreferenceFragment;
+
+import com.android.settingslib.widget.MainSwitchPreference;
+import com.android.settingslib.widget.OnMainSwitchChangeListener;
+
+import co.aospa.xiaomiparts.R;
+
+public class DcDimmingFragment extends PreferenceFragment implements OnMainSwitchChangeListener {
+
+    private static final String PREF_AUTO = "dc_dimming_auto";
+
+    @Override
+    public void onCreatePreferences(Bundle savedInstanceState, String rootKey) {
+        addPreferencesFromResource(R.xml.dc_dimming_settings);
+
+        final MainSwitchPreference switchBar = (MainSwitchPreference) findPreference(PREF_AUTO);
+        switchBar.addOnSwitchChangeListener(this);
+        switchBar.setChecked(Settings.System.getIntForUser(getActivity().getContentResolver(),
+                DcDimmingModule.SETTING_KEY_AUTO, 0, UserHandle.USER_CURRENT) == 1);
+    }
+
+    @Override
+    public void onSwitchChanged(Switch switchView, boolean isChecked) {
+        Settings.System.putIntForUser(getActivity().getContentResolver(),
+                DcDimmingModule.SETTING_KEY_AUTO, isChecked ? 1 : 0, UserHandle.USER_CURRENT);
+    }
+}
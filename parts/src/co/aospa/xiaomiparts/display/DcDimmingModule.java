@@ -0,0 +1,259 @@
+/*
+ * Copyright (C) 2023 Paranoid Android
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package co.aospa.xiaomiparts.display;
+
+import static android.provider.Settings.System.DC_DIMMING_STATE;
+
+import android.content.ComponentName;
+import android.content.pm.PackageManager;
+import android.content.res.Resources;
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+import android.hardware.display.BrightnessInfo;
+import android.hardware.display.DisplayManager;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.os.SystemProperties;
+import android.os.UserHandle;
+import android.provider.Settings;
+import android.util.Log;
+import android.view.Display;
+
+import com.android.settingslib.display.BrightnessUtils;
+
+import co.aospa.xiaomiparts.PartsModule;
+import co.aospa.xiaomiparts.PartsService;
+import co.aospa.xiaomiparts.R;
+import co.aospa.xiaomiparts.utils.DumpWriter;
+
+public class DcDimmingModule implements PartsModule {
+
+    private static final String TAG = "DcDimmingModule";
+    private static final String DC_DIMMING_PROP = "ro.vendor.display.dc_dimming_supported";
+    static final String SETTING_KEY_AUTO = "dc_dimming_auto";
+
+    private PartsService mHost;
+    private Handler mHandler = new Handler();
+    private DisplayStateTracker mDisplayStateTracker;
+    private DisplayManager mDisplayManager;
+    private SensorManager mSensorManager;
+    private Sensor mLightSensor;
+
+    /* auto mode thresholds, brightness in percent */
+    private int mEnableBrightness, mDisableBrightness;
+    private int mEnableLux, mDisableLux;
+    private long mMinDwellMs;
+
+    private boolean mIsAutoEnabled;
+    private boolean mIsListening;
+    /* -1 until the light sensor reports */
+    private float mLux = -1;
+    private boolean mAutoDcState;
+    private long mLastTransitionTime;
+    private int mAutoTransitions;
+
+    private final Runnable mAutoUpdateRunnable = this::updateAutoDcDimming;
+
+    private final Runnable mSettingObserver = () -> {
+        dlog("SettingObserver: onChange");
+        updateDcDimming();
+    };
+
+    /* also covers auto brightness, which never writes SCREEN_BRIGHTNESS */
+    private final DisplayManager.DisplayListener mBrightnessListener =
+            new DisplayManager.DisplayListener() {
+        @Override
+        public void onDisplayAdded(int displayId) { }
+
+        @Override
+        public void onDisplayRemoved(int displayId) { }
+
+        @Override
+        public void onDisplayChanged(int displayId) {
+            if (displayId == Display.DEFAULT_DISPLAY) {
+                updateAutoDcDimming();
+            }
+        }
+    };
+
+    private final SensorEventListener mLightListener = new SensorEventListener() {
+        @Override
+        public void onAccuracyChanged(Sensor sensor, int accuracy) { }
+
+        @Override
+        public void onSensorChanged(SensorEvent event) {
+            mLux = event.values[0];
+            updateAutoDcDimming();
+        }
+    };
+
+    private final DisplayStateTracker.Callback mDisplayStateCallback = (state) -> {
+        updateListeners();
+    };
+
+    @Override
+    public int getDependencies() {
+        return DEP_SETTINGS | DEP_DISPLAY | DEP_DISPLAY_FEATURE;
+    }
+
+    @Override
+    public void onStart(PartsService host) {
+        mHost = host;
+        dlog("onStart");
+        mDisplayStateTracker = DisplayStateTracker.getInstance(mHost);
+        mDisplayManager = mHost.getSystemService(DisplayManager.class);
+        mSensorManager = mHost.getSystemService(SensorManager.class);
+        mLightSensor = mSensorManager.getDefaultSensor(Sensor.TYPE_LIGHT);
+
+        final Resources res = mHost.getResources();
+        mEnableBrightness = res.getInteger(R.integer.config_dcDimmingAutoEnableBrightness);
+        mDisableBrightness = res.getInteger(R.integer.config_dcDimmingAutoDisableBrightness);
+        mEnableLux = res.getInteger(R.integer.config_dcDimmingAutoEnableLux);
+        mDisableLux = res.getInteger(R.integer.config_dcDimmingAutoDisableLux);
+        mMinDwellMs = res.getInteger(R.integer.config_dcDimmingAutoMinDwellMs);
+
+        mHost.addSettingObserver(Settings.System.getUriFor(DC_DIMMING_STATE), mSettingObserver);
+        mHost.addSettingObserver(Settings.System.getUriFor(SETTING_KEY_AUTO), mSettingObserver);
+        mDisplayStateTracker.addCallback(mDisplayStateCallback);
+        // the settings entry is only shown where DC dimming is supported
+        mHost.getPackageManager().setComponentEnabledSetting(
+                new ComponentName(mHost, DcDimmingActivity.class),
+                PackageManager.COMPONENT_ENABLED_STATE_ENABLED, PackageManager.DONT_KILL_APP);
+        updateDcDimming();
+    }
+
+    @Override
+    public void onStop() {
+        dlog("onStop");
+        mHost.removeSettingObserver(mSettingObserver);
+        mDisplayStateTracker.removeCallback(mDisplayStateCallback);
+        mHandler.removeCallbacks(mAutoUpdateRunnable);
+        mSensorManager.unregisterListener(mLightListener);
+        mDisplayManager.unregisterDisplayListener(mBrightnessListener);
+    }
+
+    @Override
+    public void dump(DumpWriter dw) {
+        dw.put("autoEnabled", mIsAutoEnabled)
+                .put("autoDcState", mAutoDcState)
+                .put("listening", mIsListening)
+                .put("lux", mLux)
+                .put("autoTransitions", mAutoTransitions);
+    }
+
+    public static boolean isSupported() {
+        if (SystemProperties.getBoolean(DC_DIMMING_PROP, false)) {
+            Log.i(TAG, "dc dimming is not supported");
+            return false;
+        }
+        return true;
+    }
+
+    private void updateDcDimming() {
+        mIsAutoEnabled = Settings.System.getIntForUser(mHost.getContentResolver(),
+                SETTING_KEY_AUTO, 0, UserHandle.USER_CURRENT) == 1;
+        updateListeners();
+        if (mIsAutoEnabled) {
+            dlog("updateDcDimming: auto");
+            mLastTransitionTime = 0;
+            updateAutoDcDimming();
+            return;
+        }
+        mHandler.removeCallbacks(mAutoUpdateRunnable);
+        final int enabled = Settings.System.getInt(mHost.getContentResolver(),
+                Settings.System.DC_DIMMING_STATE, 0);
+        dlog("updateDcDimming: enabled=" + enabled);
+        mDisplayStateTracker.setDcDimming(enabled == 1);
+    }
+
+    /* brightness and light are only watched in auto mode while the screen is on */
+    private void updateListeners() {
+        final boolean register = mIsAutoEnabled
+                && mDisplayStateTracker.getDisplayState() == Display.STATE_ON;
+        if (register == mIsListening) {
+            return;
+        }
+        dlog("updateListeners: register=" + register);
+        if (register) {
+            mDisplayManager.registerDisplayListener(mBrightnessListener, mHandler,
+                    DisplayManager.EVENT_FLAG_DISPLAY_BRIGHTNESS);
+            if (mLightSensor != null) {
+                mSensorManager.registerListener(mLightListener, mLightSensor,
+                        SensorManager.SENSOR_DELAY_NORMAL, mHandler);
+            }
+        } else {
+            mDisplayManager.unregisterDisplayListener(mBrightnessListener);
+            mSensorManager.unregisterListener(mLightListener);
+            mLux = -1;
+        }
+        mIsListening = register;
+    }
+
+    /* the brightness slider position in percent, the scale the thresholds are in */
+    private int getBrightnessPercent() {
+        final Display display = mDisplayManager.getDisplay(Display.DEFAULT_DISPLAY);
+        final BrightnessInfo info = display != null ? display.getBrightnessInfo() : null;
+        if (info == null) {
+            return -1;
+        }
+        final int gamma = BrightnessUtils.convertLinearToGammaFloat(info.brightness,
+                info.brightnessMinimum, info.brightnessMaximum);
+        return Math.round(100f * (gamma - BrightnessUtils.GAMMA_SPACE_MIN)
+                / (BrightnessUtils.GAMMA_SPACE_MAX - BrightnessUtils.GAMMA_SPACE_MIN));
+    }
+
+    /*
+     * DC backlight is enabled once both brightness and ambient light are at or below the
+     * enable thresholds and disabled as soon as either reaches its disable threshold. In
+     * between the current state is kept, and a state is held for at least mMinDwellMs.
+     */
+    private void updateAutoDcDimming() {
+        if (!mIsAutoEnabled) {
+            return;
+        }
+        mHandler.removeCallbacks(mAutoUpdateRunnable);
+        final int brightness = getBrightnessPercent();
+        if (brightness < 0 || (mLightSensor != null && mLux < 0)) {
+            // nothing to decide on yet, keep the current state
+            mDisplayStateTracker.setDcDimming(mAutoDcState);
+            return;
+        }
+        // without a light sensor brightness alone decides
+        final boolean isDark = mLightSensor == null || mLux <= mEnableLux;
+        final boolean isBright = mLightSensor != null && mLux >= mDisableLux;
+
+        boolean state = mAutoDcState;
+        if (!mAutoDcState && brightness <= mEnableBrightness && isDark) {
+            state = true;
+        } else if (mAutoDcState && (brightness >= mDisableBrightness || isBright)) {
+            state = false;
+        }
+
+        if (state != mAutoDcState) {
+            final long now = SystemClock.uptimeMillis();
+            final long sinceLast = now - mLastTransitionTime;
+            if (mLastTransitionTime != 0 && sinceLast < mMinDwellMs) {
+                mHandler.postDelayed(mAutoUpdateRunnable, mMinDwellMs - sinceLast);
+                return;
+            }
+            mAutoDcState = state;
+            mLastTransitionTime = now;
+            mAutoTransitions++;
+            dlog("updateAutoDcDimming: brightness=" + brightness + " lux=" + mLux
+                    + " state=" + state + " transitions=" + mAutoTransitions);
+        }
+        mDisplayStateTracker.setDcDimming(mAutoDcState);
+    }
+
+    private static void dlog(String msg) {
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, msg);
+        }
+    }
+}
@@ -8,6 +8,11 @@ package co.aospa.xiaomiparts.display;
 
 import android.os.IHwBinder.DeathRecipient;
 import android.util.Log;
+import android.util.SparseIntArray;
+
+import java.util.Objects;
+
+import co.aospa.xiaomiparts.utils.DumpWriter;
 
 import vendor.xiaomi.hardware.displayfeature.V1_0.IDisplayFeature;
 
@@ -15,19 +20,28 @@ public class DfWrapper {
 
     private static final String TAG = "DisplayFeatureWrapper";
 
+    /* written under the class lock, the death notification comes on a binder thread */
     private static IDisplayFeature mDisplayFeature;
 
-    private static DeathRecipient mDeathRecipient = (cookie) -> {
+    private static int mWrites, mWriteFailures;
+    /* mode -> last value sent */
+    private static final SparseIntArray mValues = new SparseIntArray();
+
+    /* HwBinder only holds death recipients weakly, so ours has to stay referenced */
+    private static final DeathRecipient mDeathRecipient = (cookie) -> {
         dlog("serviceDied");
-        mDisplayFeature = null;
+        synchronized (DfWrapper.class) {
+            mDisplayFeature = null;
+        }
     };
 
-    public static IDisplayFeature getDisplayFeature() {
+    public static synchronized IDisplayFeature getDisplayFeature() {
         if (mDisplayFeature == null) {
             dlog("getDisplayFeature: mDisplayFeature=null");
             try {
-                mDisplayFeature = IDisplayFeature.getService();
-                mDisplayFeature.asBinder().linkToDeath(mDeathRecipient, 0);
+                final IDisplayFeature displayFeature = IDisplayFeature.getService();
+                displayFeature.asBinder().linkToDeath(mDeathRecipient, 0);
+                mDisplayFeature = displayFeature;
             } catch (Exception e) {
                 Log.e(TAG, "getDisplayFeature failed!", e);
             }
@@ -36,16 +50,42 @@ public class DfWrapper {
     }
 
     public static void setDisplayFeature(DfParams params) {
+        setDisplayFeature(params.mode, params.value, params.cookie);
+    }
+
+    public static void setDisplayFeature(int mode, int value, int cookie) {
         final IDisplayFeature displayFeature = getDisplayFeature();
         if (displayFeature == null) {
             Log.e(TAG, "setDisplayFeatureParams: displayFeature is null!");
+            countWrite(mode, value, false);
             return;
         }
-        dlog("setDisplayFeatureParams: " + params);
+        dlog("setDisplayFeatureParams: mode=" + mode + " value=" + value + " cookie=" + cookie);
         try {
-            displayFeature.setFeature(0, params.mode, params.value, params.cookie);
+            displayFeature.setFeature(0, mode, value, cookie);
+            countWrite(mode, value, true);
         } catch (Exception e) {
             Log.e(TAG, "setDisplayFeatureParams failed!", e);
+            countWrite(mode, value, false);
+        }
+    }
+
+    public static synchronized void dump(DumpWriter dw) {
+        dw.put("connected", mDisplayFeature != null)
+                .put("writes", mWrites)
+                .put("writeFailures", mWriteFailures);
+        final DumpWriter values = dw.section("mode");
+        for (int i = 0; i < mValues.size(); i++) {
+            values.put(Integer.toString(mValues.keyAt(i)), mValues.valueAt(i));
+        }
+    }
+
+    private static synchronized void countWrite(int mode, int value, boolean success) {
+        mWrites++;
+        if (success) {
+            mValues.put(mode, value);
+        } else {
+            mWriteFailures++;
         }
     }
 
@@ -65,6 +105,19 @@ public class DfWrapper {
             this.cookie = cookie;
         }
 
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof DfParams)) return false;
+            final DfParams other = (DfParams) o;
+            return mode == other.mode && value == other.value && cookie == other.cookie;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(mode, value, cookie);
+        }
+
         public String toString() {
             return "DisplayFeatureParams(" + mode + ", " + value + ", " + cookie + ")";
         }
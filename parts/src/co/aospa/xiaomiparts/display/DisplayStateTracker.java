@@ -0,0 +1,289 @@
+/*
+ * Copyright (C) 2023 Paranoid Android
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package co.aospa.xiaomiparts.display;
+
+import android.content.Context;
+import android.hardware.display.DisplayManager;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.Display;
+
+import java.util.ArrayList;
+
+import co.aospa.xiaomiparts.R;
+import co.aospa.xiaomiparts.utils.DumpWriter;
+import co.aospa.xiaomiparts.utils.LatencyStats;
+
+/**
+ * Tracks the default display state and owns every displayfeature field that depends on it.
+ *
+ * Services request the state they want (color mode, doze brightness, DC backlight) and the
+ * tracker works out what the HAL should be set to for the current display state, pushing only
+ * the fields that differ from what was last applied.
+ */
+public class DisplayStateTracker {
+
+    private static final String TAG = "DisplayStateTracker";
+
+    public interface Callback {
+        void onDisplayStateChanged(int state);
+    }
+
+    private static final int DC_BACKLIGHT_STATE = 20;
+    private static final int DOZE_BRIGHTNESS_STATE = 25;
+
+    /* restore the color mode anyway if the display takes this long to reach STATE_ON */
+    private static final long COLOR_RESTORE_TIMEOUT_MS = 500;
+
+    private static final int UNSET = -1;
+
+    private static DisplayStateTracker sInstance;
+
+    private final DisplayManager mDisplayManager;
+    private final ColorModeTable mColorModeTable;
+    /* index into mColorModeTable used while in AOD */
+    private final int mDozeColorIndex;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final ArrayList<Callback> mCallbacks = new ArrayList<>();
+
+    private int mDisplayState;
+    private boolean mDispatching;
+
+    /* left AOD, the color mode is restored once the display is on */
+    private boolean mColorRestorePending;
+    private long mWakeTime;
+    private int mColorRestoreTimeouts;
+    private final LatencyStats mColorRestoreLatency = new LatencyStats("color_restore_ms");
+
+    /* requested by services, the color mode as an index into mColorModeTable */
+    private int mColorIndex = UNSET;
+    private int mDozeHbm = UNSET;
+    private int mDcDimming = UNSET;
+
+    /* last pushed to the HAL */
+    private int mAppliedColorIndex = UNSET;
+    private int mAppliedDozeBrightness = UNSET;
+    private int mAppliedDcDimming = UNSET;
+    private long mDozeBrightnessWrites;
+
+    private final Runnable mColorRestoreTimeout = () -> {
+        mColorRestoreTimeouts++;
+        Log.w(TAG, "Display not on after " + COLOR_RESTORE_TIMEOUT_MS
+                + "ms, restoring color mode anyway");
+        mColorRestorePending = false;
+        applyState();
+    };
+
+    private final DisplayManager.DisplayListener mDisplayListener =
+            new DisplayManager.DisplayListener() {
+        @Override
+        public void onDisplayAdded(int displayId) { }
+
+        @Override
+        public void onDisplayRemoved(int displayId) { }
+
+        @Override
+        public void onDisplayChanged(int displayId) {
+            if (displayId == Display.DEFAULT_DISPLAY) {
+                updateDisplayState();
+            }
+        }
+    };
+
+    public static synchronized DisplayStateTracker getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new DisplayStateTracker(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private DisplayStateTracker(Context context) {
+        mDisplayManager = context.getSystemService(DisplayManager.class);
+        mColorModeTable = ColorModeTable.fromResources(context.getResources());
+        final int dozeColorMode = context.getResources().getInteger(R.integer.config_dozeColorMode);
+        mDozeColorIndex = mColorModeTable.indexOf(dozeColorMode);
+        if (mDozeColorIndex < 0) {
+            Log.e(TAG, "AOD color mode " + dozeColorMode + " is not in the color mode table!");
+        }
+        mDisplayState = getDefaultDisplayState();
+        mDisplayManager.registerDisplayListener(mDisplayListener, mHandler);
+    }
+
+    public void addCallback(Callback callback) {
+        mCallbacks.add(callback);
+    }
+
+    public void removeCallback(Callback callback) {
+        mCallbacks.remove(callback);
+    }
+
+    public int getDisplayState() {
+        return mDisplayState;
+    }
+
+    public boolean isDozing() {
+        return mDisplayState == Display.STATE_DOZE || mDisplayState == Display.STATE_DOZE_SUSPEND;
+    }
+
+    public void setColorMode(int colorMode) {
+        final int index = mColorModeTable.indexOf(colorMode);
+        if (index < 0) {
+            Log.e(TAG, "setColorMode: " + colorMode + " is not in the color mode table!");
+            return;
+        }
+        mColorIndex = index;
+        applyState();
+    }
+
+    public void dump(DumpWriter dw) {
+        dw.put("displayState", Display.stateToString(mDisplayState))
+                .put("colorMode", mColorIndex >= 0
+                        ? mColorModeTable.getColorMode(mColorIndex) : UNSET)
+                .put("appliedColorMode", mAppliedColorIndex >= 0
+                        ? mColorModeTable.getColorMode(mAppliedColorIndex) : UNSET)
+                .put("dcDimming", mAppliedDcDimming)
+                .put("dozeBrightness", mAppliedDozeBrightness)
+                .put("colorRestorePending", mColorRestorePending)
+                .put("colorRestoreTimeouts", mColorRestoreTimeouts)
+                .put(mColorRestoreLatency);
+        mColorModeTable.dump(dw.section("colorModeTable"));
+    }
+
+    /** How often the doze brightness was actually sent to the HAL. */
+    public long getDozeBrightnessWrites() {
+        return mDozeBrightnessWrites;
+    }
+
+    public void setDozeHbm(boolean hbm) {
+        mDozeHbm = hbm ? 1 : 0;
+        applyState();
+    }
+
+    public void setDcDimming(boolean enabled) {
+        mDcDimming = enabled ? 1 : 0;
+        applyState();
+    }
+
+    private int getDefaultDisplayState() {
+        final Display display = mDisplayManager.getDisplay(Display.DEFAULT_DISPLAY);
+        return display != null ? display.getState() : Display.STATE_UNKNOWN;
+    }
+
+    private void updateDisplayState() {
+        final int state = getDefaultDisplayState();
+        if (state == mDisplayState) {
+            return;
+        }
+        dlog("updateDisplayState: " + Display.stateToString(mDisplayState) + " -> "
+                + Display.stateToString(state));
+        final boolean wasDozing = isDozing();
+        mDisplayState = state;
+        updateColorRestore(wasDozing);
+
+        // let services update their requests first, then apply everything once
+        mDispatching = true;
+        for (Callback callback : new ArrayList<>(mCallbacks)) {
+            callback.onDisplayStateChanged(state);
+        }
+        mDispatching = false;
+        applyState();
+    }
+
+    private void updateColorRestore(boolean wasDozing) {
+        mHandler.removeCallbacks(mColorRestoreTimeout);
+        if (isDozing()) {
+            mColorRestorePending = false;
+            return;
+        }
+        if (wasDozing) {
+            mColorRestorePending = true;
+            mWakeTime = SystemClock.uptimeMillis();
+        }
+        if (!mColorRestorePending) {
+            return;
+        }
+        if (mDisplayState == Display.STATE_OFF) {
+            // went to sleep from AOD, wait for the next wakeup
+            mWakeTime = 0;
+            return;
+        }
+        if (mWakeTime == 0) {
+            mWakeTime = SystemClock.uptimeMillis();
+        }
+        if (mDisplayState == Display.STATE_ON) {
+            mColorRestorePending = false;
+        } else {
+            mHandler.postDelayed(mColorRestoreTimeout, COLOR_RESTORE_TIMEOUT_MS);
+        }
+    }
+
+    /*
+     * DC backlight does not depend on the display state and goes first. When entering AOD
+     * the color mode is dropped to standard before doze brightness kicks in, when leaving
+     * it doze brightness is turned off before the color mode is restored.
+     */
+    private void applyState() {
+        if (mDispatching) {
+            return;
+        }
+        applyDcDimming();
+        if (isDozing()) {
+            applyColorMode();
+            applyDozeBrightness();
+        } else {
+            applyDozeBrightness();
+            applyColorMode();
+        }
+    }
+
+    private void applyDcDimming() {
+        if (mDcDimming == UNSET || mDcDimming == mAppliedDcDimming) {
+            return;
+        }
+        dlog("applyDcDimming: " + mDcDimming);
+        DfWrapper.setDisplayFeature(DC_BACKLIGHT_STATE, mDcDimming, 0);
+        mAppliedDcDimming = mDcDimming;
+    }
+
+    private void applyColorMode() {
+        final boolean useDozeMode = isDozing() || mColorRestorePending;
+        final int index = useDozeMode ? mDozeColorIndex : mColorIndex;
+        if (index >= 0 && index != mAppliedColorIndex) {
+            dlog("applyColorMode: " + mColorModeTable.getColorMode(index));
+            mColorModeTable.apply(index);
+            mAppliedColorIndex = index;
+        }
+        if (!useDozeMode && mWakeTime != 0) {
+            mColorRestoreLatency.record(SystemClock.uptimeMillis() - mWakeTime);
+            dlog("applyColorMode: restored, " + mColorRestoreLatency
+                    + " timeouts=" + mColorRestoreTimeouts);
+            mWakeTime = 0;
+        }
+    }
+
+    private void applyDozeBrightness() {
+        if (mDozeHbm == UNSET) {
+            return;
+        }
+        final int mode = !isDozing() ? 0 : (mDozeHbm == 1 ? 1 : 2);
+        if (mode == mAppliedDozeBrightness) {
+            return;
+        }
+        dlog("applyDozeBrightness: " + mode);
+        DfWrapper.setDisplayFeature(DOZE_BRIGHTNESS_STATE, mode, 0);
+        mAppliedDozeBrightness = mode;
+        mDozeBrightnessWrites++;
+    }
+
+    private static void dlog(String msg) {
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, msg);
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2023 Paranoid Android
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package co.aospa.xiaomiparts.display;
+
+import android.hardware.display.DisplayManager;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.Display;
+import android.view.Display.HdrCapabilities;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+import co.aospa.xiaomiparts.PartsModule;
+import co.aospa.xiaomiparts.PartsService;
+import co.aospa.xiaomiparts.R;
+import co.aospa.xiaomiparts.utils.DumpWriter;
+import co.aospa.xiaomiparts.utils.ForegroundAppTracker;
+import co.aospa.xiaomiparts.utils.LatencyStats;
+
+/**
+ * Overrides the HDR types advertised by the default display, per foreground app.
+ *
+ * Every override makes the display reconfigure, so it is only issued when the effective
+ * set of types changes, and each call is timed.
+ */
+public class HdrModule implements PartsModule {
+
+    private static final String TAG = "HdrModule";
+
+    // Override HDR types to enable Dolby Vision
+    private static final int[] DEFAULT_HDR_TYPES = {
+            HdrCapabilities.HDR_TYPE_DOLBY_VISION, HdrCapabilities.HDR_TYPE_HDR10,
+            HdrCapabilities.HDR_TYPE_HLG, HdrCapabilities.HDR_TYPE_HDR10_PLUS };
+
+    private PartsService mHost;
+    private DisplayManager mDisplayManager;
+    private ForegroundAppTracker mForegroundAppTracker;
+
+    /* package -> HDR types */
+    private final HashMap<String, int[]> mAppHdrTypes = new HashMap<>();
+    private int[] mAppliedHdrTypes;
+    private final LatencyStats mOverrideLatency = new LatencyStats("hdr_override_ms");
+
+    private final ForegroundAppTracker.Callback mForegroundAppCallback = (packageName) -> {
+        updateHdrTypes();
+    };
+
+    @Override
+    public void onPrepare(PartsService host) {
+        mHost = host;
+        mDisplayManager = mHost.getSystemService(DisplayManager.class);
+        mForegroundAppTracker = ForegroundAppTracker.getInstance();
+        loadAppHdrTypes();
+        // the override is a binder call into display manager, keep it off the main thread
+        updateHdrTypes();
+    }
+
+    @Override
+    public void onStart(PartsService host) {
+        dlog("onStart");
+        if (!mAppHdrTypes.isEmpty()) {
+            mForegroundAppTracker.addCallback(mForegroundAppCallback);
+        }
+    }
+
+    @Override
+    public void onStop() {
+        dlog("onStop");
+        mForegroundAppTracker.removeCallback(mForegroundAppCallback);
+    }
+
+    @Override
+    public void dump(DumpWriter dw) {
+        dw.put("applied", mAppliedHdrTypes)
+                .put(mOverrideLatency);
+    }
+
+    /* "package=type[,type...]" */
+    private void loadAppHdrTypes() {
+        for (String entry : mHost.getResources().getStringArray(R.array.config_appHdrTypes)) {
+            try {
+                final String[] parts = entry.split("=", -1);
+                if (parts[1].trim().isEmpty()) {
+                    // an empty override clears it and brings back the panel's own types
+                    throw new IllegalArgumentException("No HDR types");
+                }
+                final String[] names = parts[1].split(",");
+                final int[] types = new int[names.length];
+                for (int i = 0; i < names.length; i++) {
+                    types[i] = parseHdrType(names[i].trim());
+                }
+                mAppHdrTypes.put(parts[0].trim(), types);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Ignoring invalid app HDR types: " + entry);
+            }
+        }
+    }
+
+    private static int parseHdrType(String name) {
+        switch (name) {
+            case "dolby_vision":
+                return HdrCapabilities.HDR_TYPE_DOLBY_VISION;
+            case "hdr10":
+                return HdrCapabilities.HDR_TYPE_HDR10;
+            case "hlg":
+                return HdrCapabilities.HDR_TYPE_HLG;
+            case "hdr10_plus":
+                return HdrCapabilities.HDR_TYPE_HDR10_PLUS;
+            default:
+                throw new IllegalArgumentException("Unknown HDR type " + name);
+        }
+    }
+
+    private void updateHdrTypes() {
+        final int[] appHdrTypes = mAppHdrTypes.get(mForegroundAppTracker.getForegroundApp());
+        final int[] hdrTypes = appHdrTypes != null ? appHdrTypes : DEFAULT_HDR_TYPES;
+        if (Arrays.equals(hdrTypes, mAppliedHdrTypes)) {
+            return;
+        }
+        final long start = SystemClock.uptimeMillis();
+        mDisplayManager.overrideHdrTypes(Display.DEFAULT_DISPLAY, hdrTypes);
+        mOverrideLatency.record(SystemClock.uptimeMillis() - start);
+        mAppliedHdrTypes = hdrTypes;
+        dlog("updateHdrTypes: " + Arrays.toString(hdrTypes) + " for "
+                + mForegroundAppTracker.getForegroundApp() + ", " + mOverrideLatency);
+    }
+
+    private static void dlog(String msg) {
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, msg);
+        }
+    }
+}
@@ -0,0 +1,268 @@
+/*
+ * Copyright (C) 2023 Paranoid Android
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package co.aospa.xiaomiparts.display;
+
+import android.content.SharedPreferences;
+import android.hardware.display.DisplayManager;
+import android.os.SystemClock;
+import android.os.UserHandle;
+import android.provider.Settings;
+import android.util.Log;
+import android.util.SparseLongArray;
+import android.view.Display;
+
+import androidx.preference.PreferenceManager;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import co.aospa.xiaomiparts.PartsModule;
+import co.aospa.xiaomiparts.PartsService;
+import co.aospa.xiaomiparts.R;
+import co.aospa.xiaomiparts.utils.DumpWriter;
+import co.aospa.xiaomiparts.utils.ForegroundAppTracker;
+
+/**
+ * Applies per-app min/peak refresh rates while an app is in the foreground.
+ *
+ * The user's own min/peak refresh rate settings are the baseline for every other app. The
+ * settings are only written when the effective rates change, and the baseline is saved while
+ * an app's rates are applied so it survives the service restarting.
+ */
+public class RefreshRateModule implements PartsModule {
+
+    private static final String TAG = "RefreshRateModule";
+
+    private static final String PREF_USER_MIN_RATE = "refresh_rate_user_min";
+    private static final String PREF_USER_PEAK_RATE = "refresh_rate_user_peak";
+
+    private static final float DEFAULT_MIN_RATE = 0f;
+
+    private PartsService mHost;
+    private SharedPreferences mSharedPrefs;
+    private DisplayStateTracker mDisplayStateTracker;
+    private ForegroundAppTracker mForegroundAppTracker;
+
+    /* package -> {min, peak} */
+    private final HashMap<String, float[]> mAppRates = new HashMap<>();
+
+    private float mDefaultPeakRate;
+
+    /* the user's own settings */
+    private float mUserMinRate, mUserPeakRate;
+    /* what we last wrote */
+    private float mAppliedMinRate, mAppliedPeakRate;
+    private boolean mIsOverriding;
+
+    /* package -> peak rate -> time in the foreground with the display on */
+    private final HashMap<String, SparseLongArray> mTimeAtRate = new HashMap<>();
+    private String mCountedApp;
+    private long mCountStartTime;
+
+    private final Runnable mSettingObserver = () -> {
+        final float minRate = getRateSetting(Settings.System.MIN_REFRESH_RATE,
+                DEFAULT_MIN_RATE);
+        final float peakRate = getRateSetting(Settings.System.PEAK_REFRESH_RATE,
+                mDefaultPeakRate);
+        if (minRate == mAppliedMinRate && peakRate == mAppliedPeakRate) {
+            // our own write
+            return;
+        }
+        updateTimeAtRate();
+        dlog("SettingObserver: user changed rates to " + minRate + "/" + peakRate);
+        mUserMinRate = minRate;
+        mUserPeakRate = peakRate;
+        mAppliedMinRate = minRate;
+        mAppliedPeakRate = peakRate;
+        if (mIsOverriding) {
+            // the saved baseline is what gets restored once the override ends
+            saveUserRates();
+        }
+        updateRefreshRate();
+    };
+
+    private final ForegroundAppTracker.Callback mForegroundAppCallback = (packageName) -> {
+        updateRefreshRate();
+    };
+
+    private final DisplayStateTracker.Callback mDisplayStateCallback = (state) -> {
+        updateTimeAtRate();
+    };
+
+    @Override
+    public int getDependencies() {
+        return DEP_SETTINGS | DEP_DISPLAY;
+    }
+
+    @Override
+    public void onStart(PartsService host) {
+        mHost = host;
+        dlog("onStart");
+        mSharedPrefs = PreferenceManager.getDefaultSharedPreferences(mHost);
+        mDisplayStateTracker = DisplayStateTracker.getInstance(mHost);
+        mForegroundAppTracker = ForegroundAppTracker.getInstance();
+        final int defaultPeakRate = mHost.getResources().getInteger(
+                com.android.internal.R.integer.config_defaultPeakRefreshRate);
+        mDefaultPeakRate = defaultPeakRate > 0 ? defaultPeakRate : getMaxRefreshRate();
+        loadAppRates();
+        loadUserRates();
+        mHost.addSettingObserver(Settings.System.getUriFor(Settings.System.MIN_REFRESH_RATE),
+                mSettingObserver);
+        mHost.addSettingObserver(Settings.System.getUriFor(Settings.System.PEAK_REFRESH_RATE),
+                mSettingObserver);
+        mDisplayStateTracker.addCallback(mDisplayStateCallback);
+        mForegroundAppTracker.addCallback(mForegroundAppCallback);
+        updateRefreshRate();
+    }
+
+    @Override
+    public void onStop() {
+        dlog("onStop");
+        mHost.removeSettingObserver(mSettingObserver);
+        mDisplayStateTracker.removeCallback(mDisplayStateCallback);
+        mForegroundAppTracker.removeCallback(mForegroundAppCallback);
+        applyRates(mUserMinRate, mUserPeakRate);
+    }
+
+    @Override
+    public void dump(DumpWriter dw) {
+        // include the running interval without closing it
+        final HashMap<String, SparseLongArray> timeAtRate = new HashMap<>();
+        for (Map.Entry<String, SparseLongArray> entry : mTimeAtRate.entrySet()) {
+            timeAtRate.put(entry.getKey(), entry.getValue().clone());
+        }
+        if (mCountedApp != null) {
+            addTimeAtRate(timeAtRate, mCountedApp, Math.round(mAppliedPeakRate),
+                    SystemClock.elapsedRealtime() - mCountStartTime);
+        }
+        dw.put("userMinRate", mUserMinRate)
+                .put("userPeakRate", mUserPeakRate)
+                .put("appliedMinRate", mAppliedMinRate)
+                .put("appliedPeakRate", mAppliedPeakRate);
+        for (Map.Entry<String, SparseLongArray> entry : timeAtRate.entrySet()) {
+            final DumpWriter times = dw.section("timeAtRateMs").section(entry.getKey());
+            final SparseLongArray rates = entry.getValue();
+            for (int i = 0; i < rates.size(); i++) {
+                times.put(rates.keyAt(i) + "Hz", rates.valueAt(i));
+            }
+        }
+    }
+
+    /* "package=min:peak" */
+    private void loadAppRates() {
+        for (String entry : mHost.getResources().getStringArray(R.array.config_appRefreshRates)) {
+            try {
+                final String[] parts = entry.split("=");
+                final String[] rates = parts[1].split(":");
+                mAppRates.put(parts[0].trim(), new float[] {
+                        Float.parseFloat(rates[0].trim()), Float.parseFloat(rates[1].trim()) });
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Ignoring invalid app refresh rate: " + entry);
+            }
+        }
+    }
+
+    private void loadUserRates() {
+        mAppliedMinRate = getRateSetting(Settings.System.MIN_REFRESH_RATE, DEFAULT_MIN_RATE);
+        mAppliedPeakRate = getRateSetting(Settings.System.PEAK_REFRESH_RATE, mDefaultPeakRate);
+        // an app's rates may still be applied if we died while overriding
+        mUserMinRate = mSharedPrefs.getFloat(PREF_USER_MIN_RATE, mAppliedMinRate);
+        mUserPeakRate = mSharedPrefs.getFloat(PREF_USER_PEAK_RATE, mAppliedPeakRate);
+        mIsOverriding = mSharedPrefs.contains(PREF_USER_PEAK_RATE);
+        dlog("loadUserRates: user=" + mUserMinRate + "/" + mUserPeakRate
+                + " current=" + mAppliedMinRate + "/" + mAppliedPeakRate);
+    }
+
+    private void updateRefreshRate() {
+        updateTimeAtRate();
+        final float[] appRates = mAppRates.get(mForegroundAppTracker.getForegroundApp());
+        final boolean isOverriding = appRates != null;
+        if (isOverriding != mIsOverriding) {
+            mIsOverriding = isOverriding;
+            if (isOverriding) {
+                saveUserRates();
+            } else {
+                mUserMinRate = mSharedPrefs.getFloat(PREF_USER_MIN_RATE, mUserMinRate);
+                mUserPeakRate = mSharedPrefs.getFloat(PREF_USER_PEAK_RATE, mUserPeakRate);
+                mSharedPrefs.edit()
+                        .remove(PREF_USER_MIN_RATE)
+                        .remove(PREF_USER_PEAK_RATE)
+                        .apply();
+            }
+        }
+        if (isOverriding) {
+            applyRates(appRates[0], appRates[1]);
+        } else {
+            applyRates(mUserMinRate, mUserPeakRate);
+        }
+    }
+
+    private void saveUserRates() {
+        mSharedPrefs.edit()
+                .putFloat(PREF_USER_MIN_RATE, mUserMinRate)
+                .putFloat(PREF_USER_PEAK_RATE, mUserPeakRate)
+                .apply();
+    }
+
+    private void applyRates(float minRate, float peakRate) {
+        if (minRate == mAppliedMinRate && peakRate == mAppliedPeakRate) {
+            return;
+        }
+        dlog("applyRates: " + minRate + "/" + peakRate + " for "
+                + mForegroundAppTracker.getForegroundApp());
+        mAppliedMinRate = minRate;
+        mAppliedPeakRate = peakRate;
+        Settings.System.putFloatForUser(mHost.getContentResolver(),
+                Settings.System.MIN_REFRESH_RATE, minRate, UserHandle.USER_CURRENT);
+        Settings.System.putFloatForUser(mHost.getContentResolver(),
+                Settings.System.PEAK_REFRESH_RATE, peakRate, UserHandle.USER_CURRENT);
+    }
+
+    /* closes the running interval and starts a new one for the current app and rate */
+    private void updateTimeAtRate() {
+        final long now = SystemClock.elapsedRealtime();
+        if (mCountedApp != null) {
+            addTimeAtRate(mTimeAtRate, mCountedApp, Math.round(mAppliedPeakRate),
+                    now - mCountStartTime);
+        }
+        final boolean isScreenOn = mDisplayStateTracker.getDisplayState() == Display.STATE_ON;
+        mCountedApp = isScreenOn ? mForegroundAppTracker.getForegroundApp() : null;
+        mCountStartTime = now;
+    }
+
+    private static void addTimeAtRate(HashMap<String, SparseLongArray> timeAtRate,
+            String packageName, int rate, long ms) {
+        SparseLongArray times = timeAtRate.get(packageName);
+        if (times == null) {
+            times = new SparseLongArray();
+            timeAtRate.put(packageName, times);
+        }
+        times.put(rate, times.get(rate) + ms);
+    }
+
+    /* the default when the overlay leaves config_defaultPeakRefreshRate unset */
+    private float getMaxRefreshRate() {
+        float maxRate = 0f;
+        final Display display = mHost.getSystemService(DisplayManager.class)
+                .getDisplay(Display.DEFAULT_DISPLAY);
+        for (Display.Mode mode : display.getSupportedModes()) {
+            maxRate = Math.max(maxRate, mode.getRefreshRate());
+        }
+        return maxRate;
+    }
+
+    private float getRateSetting(String key, float def) {
+        return Settings.System.getFloatForUser(mHost.getContentResolver(), key, def,
+                UserHandle.USER_CURRENT);
+    }
+
+    private static void dlog(String msg) {
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, msg);
+        }
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright (C) 2023 Paranoid Android
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package co.aospa.xiaomiparts.doze;
+
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.provider.Settings;
+import android.util.Log;
+import android.view.Display;
+
+import co.aospa.xiaomiparts.PartsModule;
+import co.aospa.xiaomiparts.PartsService;
+import co.aospa.xiaomiparts.display.DisplayStateTracker;
+import co.aospa.xiaomiparts.utils.DumpWriter;
+
+public class AodBrightnessModule implements PartsModule {
+
+    private static final String TAG = "AodBrightnessModule";
+
+    public static final int SENSOR_TYPE_AOD = 33171029; // xiaomi.sensor.aod
+    private static final float AOD_SENSOR_EVENT_BRIGHT = 4f;
+    private static final float AOD_SENSOR_EVENT_DIM = 5f;
+    private static final float AOD_SENSOR_EVENT_DARK = 3f;
+
+    private static final int DOZE_HBM_BRIGHTNESS_THRESHOLD = 20;
+
+    /* a new sensor state must hold this long before it is acted on */
+    private static final long CONFIRM_WINDOW_MS = 1000;
+    /* minimum time between two brightness transitions */
+    private static final long MIN_DWELL_MS = 3000;
+    /* at most MAX_TRANSITIONS brightness transitions per RATE_WINDOW_MS */
+    private static final int MAX_TRANSITIONS = 4;
+    private static final long RATE_WINDOW_MS = 60000;
+
+    /* events can wait in the sensor hub for up to this long */
+    private static final int SENSOR_MAX_REPORT_LATENCY_US = 1000000;
+
+    private static final long HOUR_MS = 3600000;
+
+    private PartsService mHost;
+    private final Handler mHandler = new Handler();
+    private SensorSubscription mAodSensor;
+    /* last raw value, only touched on the sensor thread while registered */
+    private float mLastSensorValue;
+    private DisplayStateTracker mDisplayStateTracker;
+    private boolean mIsDozing, mIsDozeHbm, mIsAutoBrightnessEnabled;
+
+    /* sensor state waiting for confirmation */
+    private boolean mPendingDozeHbm;
+    /* ring buffer of the last MAX_TRANSITIONS transition times */
+    private final long[] mTransitionTimes = new long[MAX_TRANSITIONS];
+    private int mTransitionIndex;
+
+    /* stats */
+    private long mDozeStartTime, mDozeTime;
+    /* requests to the tracker, which only writes the HAL on a change */
+    private long mSensorEvents, mBrightnessRequests;
+
+    private final Runnable mConfirmRunnable = this::confirmDozeHbm;
+
+    private final SensorEventListener mSensorListener = new SensorEventListener() {
+        @Override
+        public void onAccuracyChanged(Sensor sensor, int accuracy) { }
+
+        @Override
+        public void onSensorChanged(SensorEvent event) {
+            final float value = event.values[0];
+            dlog("onSensorChanged: type=" + event.sensor.getType() + " value=" + value);
+            if (value == mLastSensorValue) {
+                return;
+            }
+            mLastSensorValue = value;
+            final boolean isDozeHbm = (value == AOD_SENSOR_EVENT_BRIGHT);
+            mHandler.post(() -> onDozeHbmSensed(isDozeHbm));
+        }
+    };
+
+    private final DisplayStateTracker.Callback mDisplayStateCallback = (state) -> {
+        dlog("onDisplayStateChanged: " + Display.stateToString(state));
+        final boolean isDozing = mDisplayStateTracker.isDozing();
+        if (isDozing == mIsDozing) {
+            return;
+        }
+        mIsDozing = isDozing;
+        if (mIsDozing) {
+            mDozeStartTime = SystemClock.elapsedRealtime();
+            setInitialDozeHbmState();
+            if (mIsAutoBrightnessEnabled) {
+                mLastSensorValue = Float.NaN;
+                mAodSensor.register();
+            }
+        } else {
+            mAodSensor.unregister();
+            mHandler.removeCallbacks(mConfirmRunnable);
+            mDozeTime += SystemClock.elapsedRealtime() - mDozeStartTime;
+            dlog("Left AOD: " + getStats() + ", " + mAodSensor);
+        }
+    };
+
+    @Override
+    public int getDependencies() {
+        return DEP_SETTINGS | DEP_DISPLAY | DEP_DISPLAY_FEATURE;
+    }
+
+    @Override
+    public void onStart(PartsService host) {
+        mHost = host;
+        dlog("onStart");
+        final SensorManager sensorManager = mHost.getSystemService(SensorManager.class);
+        mAodSensor = new SensorSubscription(sensorManager,
+                sensorManager.getDefaultSensor(SENSOR_TYPE_AOD),
+                SensorManager.SENSOR_DELAY_NORMAL, SENSOR_MAX_REPORT_LATENCY_US, mSensorListener);
+        mDisplayStateTracker = DisplayStateTracker.getInstance(mHost);
+        mDisplayStateTracker.addCallback(mDisplayStateCallback);
+    }
+
+    @Override
+    public void onStop() {
+        dlog("onStop");
+        mDisplayStateTracker.removeCallback(mDisplayStateCallback);
+        mAodSensor.unregister();
+        mHandler.removeCallbacks(mConfirmRunnable);
+    }
+
+    @Override
+    public void dump(DumpWriter dw) {
+        long dozeTime = mDozeTime;
+        if (mIsDozing) {
+            dozeTime += SystemClock.elapsedRealtime() - mDozeStartTime;
+        }
+        final float hours = (float) dozeTime / HOUR_MS;
+        final long brightnessCalls = mDisplayStateTracker.getDozeBrightnessWrites();
+        dw.put("dozing", mIsDozing)
+                .put("dozeHbm", mIsDozeHbm)
+                .put("autoBrightness", mIsAutoBrightnessEnabled)
+                .put("aodMs", dozeTime)
+                .put("sensorChanges", mSensorEvents)
+                .put("brightnessRequests", mBrightnessRequests)
+                .put("brightnessCalls", brightnessCalls)
+                .put("brightnessCallsPerAodHour", hours > 0 ? brightnessCalls / hours : 0);
+        mAodSensor.dump(dw.section("aodSensor"));
+    }
+
+    private void setInitialDozeHbmState() {
+        final int brightness = Settings.System.getInt(mHost.getContentResolver(),
+                Settings.System.SCREEN_BRIGHTNESS, 0);
+        final int brightnessMode = Settings.System.getInt(mHost.getContentResolver(),
+                Settings.System.SCREEN_BRIGHTNESS_MODE,
+                Settings.System.SCREEN_BRIGHTNESS_MODE_MANUAL);
+        mIsAutoBrightnessEnabled =
+                (brightnessMode == Settings.System.SCREEN_BRIGHTNESS_MODE_AUTOMATIC);
+        mIsDozeHbm = mIsAutoBrightnessEnabled && (brightness > DOZE_HBM_BRIGHTNESS_THRESHOLD);
+        mPendingDozeHbm = mIsDozeHbm;
+        dlog("setInitialDozeHbmState: brightness=" + brightness + " mIsAutoBrightnessEnabled="
+                + mIsAutoBrightnessEnabled + " mIsDozeHbm=" + mIsDozeHbm);
+        updateDozeBrightness();
+    }
+
+    private void onDozeHbmSensed(boolean isDozeHbm) {
+        if (!mIsDozing) {
+            return;
+        }
+        mSensorEvents++;
+        if (isDozeHbm == mPendingDozeHbm) {
+            // already applied or waiting for confirmation
+            return;
+        }
+        mPendingDozeHbm = isDozeHbm;
+        mHandler.removeCallbacks(mConfirmRunnable);
+        if (isDozeHbm != mIsDozeHbm) {
+            mHandler.postDelayed(mConfirmRunnable, CONFIRM_WINDOW_MS);
+        }
+    }
+
+    private void confirmDozeHbm() {
+        final long now = SystemClock.uptimeMillis();
+        final long lastTransition = mTransitionTimes[
+                (mTransitionIndex + MAX_TRANSITIONS - 1) % MAX_TRANSITIONS];
+        final long oldestTransition = mTransitionTimes[mTransitionIndex];
+        long wait = 0;
+        if (lastTransition != 0) {
+            wait = Math.max(wait, lastTransition + MIN_DWELL_MS - now);
+        }
+        if (oldestTransition != 0) {
+            wait = Math.max(wait, oldestTransition + RATE_WINDOW_MS - now);
+        }
+        if (wait > 0) {
+            dlog("confirmDozeHbm: rate limited for " + wait + "ms");
+            mHandler.postDelayed(mConfirmRunnable, wait);
+            return;
+        }
+        mTransitionTimes[mTransitionIndex] = now;
+        mTransitionIndex = (mTransitionIndex + 1) % MAX_TRANSITIONS;
+        mIsDozeHbm = mPendingDozeHbm;
+        updateDozeBrightness();
+    }
+
+    private void updateDozeBrightness() {
+        dlog("updateDozeBrightness: mIsDozing=" + mIsDozing + " mIsDozeHbm=" + mIsDozeHbm);
+        mBrightnessRequests++;
+        mDisplayStateTracker.setDozeHbm(mIsDozeHbm);
+    }
+
+    private String getStats() {
+        long dozeTime = mDozeTime;
+        if (mIsDozing) {
+            dozeTime += SystemClock.elapsedRealtime() - mDozeStartTime;
+        }
+        final float hours = (float) dozeTime / HOUR_MS;
+        final long brightnessCalls = mDisplayStateTracker.getDozeBrightnessWrites();
+        return "aodMs=" + dozeTime + " sensorChanges=" + mSensorEvents
+                + " brightnessCalls=" + brightnessCalls + " brightnessCallsPerAodHour="
+                + (hours > 0 ? String.format("%.1f", brightnessCalls / hours) : "0");
+    }
+
+    private static void dlog(String msg) {
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, msg);
+        }
+    }
+}
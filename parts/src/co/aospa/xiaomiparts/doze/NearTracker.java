@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2023 Paranoid Android
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package co.aospa.xiaomiparts.doze;
+
+/**
+ * Tracks how long the warm proximity sensor has been near in the current screen off session.
+ *
+ * A near reading left over from an earlier session says nothing about the next one, so the
+ * tracker is reset whenever the sensor is registered or unregistered. Readings and resets
+ * happen on the sensor thread, the checks on the main thread.
+ */
+class NearTracker {
+
+    /* when the sensor turned near, 0 while far or unknown */
+    private volatile long mNearSince;
+
+    void reset() {
+        mNearSince = 0;
+    }
+
+    /* timeMs is when the sensor reported, on the elapsedRealtime clock */
+    void onProximity(boolean near, long timeMs) {
+        if (!near) {
+            mNearSince = 0;
+        } else if (mNearSince == 0) {
+            mNearSince = timeMs;
+        }
+    }
+
+    boolean isNearFor(long now, long durationMs) {
+        final long nearSince = mNearSince;
+        return nearSince != 0 && now - nearSince >= durationMs;
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2023 Paranoid Android
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package co.aospa.xiaomiparts.doze;
+
+/**
+ * Combines the pocket signals seen over a short sliding window into a confidence score.
+ *
+ * A signal counts while it is reported and for WINDOW_MS after it stops, so signals that
+ * arrive slightly apart still add up. Proximity is required: without it no combination
+ * reaches the threshold, so a palm over the screen on a desk in the dark is not a pocket.
+ * Proximity with a large area touch is enough, as is proximity with darkness and
+ * orientation even if the large area touch sensor never fires. Not thread safe, used on
+ * the sensor thread only.
+ */
+class PocketFusion {
+
+    static final int SIGNAL_LARGE_AREA_TOUCH = 0;
+    static final int SIGNAL_PROXIMITY = 1;
+    static final int SIGNAL_DARK = 2;
+    static final int SIGNAL_ORIENTATION = 3;
+    private static final int SIGNAL_COUNT = 4;
+
+    /*
+     * In percent of full confidence. Every signal but proximity together must stay below
+     * CONFIDENCE_THRESHOLD (30 + 20 + 10 < 70), keep that when changing them.
+     */
+    private static final int[] WEIGHTS = {
+        30, // large area touch
+        40, // proximity near
+        20, // dark
+        10, // held vertically or face down
+    };
+
+    static final int CONFIDENCE_THRESHOLD = 70;
+
+    private static final long WINDOW_MS = 1500;
+
+    private final boolean[] mIsActive = new boolean[SIGNAL_COUNT];
+    /* when the signal was last seen active */
+    private final long[] mLastActiveTime = new long[SIGNAL_COUNT];
+    /* when the current run of the signal started */
+    private final long[] mStartTime = new long[SIGNAL_COUNT];
+
+    void reset() {
+        for (int i = 0; i < SIGNAL_COUNT; i++) {
+            mIsActive[i] = false;
+            mLastActiveTime[i] = 0;
+            mStartTime[i] = 0;
+        }
+    }
+
+    void setSignal(int signal, boolean active, long now) {
+        if (active && !isCounted(signal, now)) {
+            mStartTime[signal] = now;
+        }
+        if (active || mIsActive[signal]) {
+            mLastActiveTime[signal] = now;
+        }
+        mIsActive[signal] = active;
+    }
+
+    int getConfidence(long now) {
+        int confidence = 0;
+        for (int i = 0; i < SIGNAL_COUNT; i++) {
+            if (isCounted(i, now)) {
+                confidence += WEIGHTS[i];
+            }
+        }
+        return confidence;
+    }
+
+    /** Returns when the earliest of the counted signals started, or 0 if none is. */
+    long getFirstSignalTime(long now) {
+        long first = 0;
+        for (int i = 0; i < SIGNAL_COUNT; i++) {
+            if (isCounted(i, now) && (first == 0 || mStartTime[i] < first)) {
+                first = mStartTime[i];
+            }
+        }
+        return first;
+    }
+
+    private boolean isCounted(int signal, long now) {
+        return mIsActive[signal]
+                || (mLastActiveTime[signal] != 0 && now - mLastActiveTime[signal] <= WINDOW_MS);
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("signals=");
+        for (int i = 0; i < SIGNAL_COUNT; i++) {
+            sb.append(mIsActive[i] ? '1' : '0');
+        }
+        return sb.toString();
+    }
+}
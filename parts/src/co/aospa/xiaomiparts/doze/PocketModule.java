@@ -0,0 +1,341 @@
+/*
+ * Copyright (C) 2022 Paranoid Android
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package co.aospa.xiaomiparts.doze;
+
+import android.app.KeyguardManager;
+import android.content.Context;
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+import android.os.PowerManager;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.Display;
+
+import java.util.concurrent.TimeUnit;
+
+import co.aospa.xiaomiparts.PartsModule;
+import co.aospa.xiaomiparts.PartsService;
+import co.aospa.xiaomiparts.display.DisplayStateTracker;
+import co.aospa.xiaomiparts.utils.DumpWriter;
+import co.aospa.xiaomiparts.utils.LatencyStats;
+
+/**
+ * Turns the screen back off when it is woken up inside a pocket.
+ *
+ * The large area touch, proximity, light and accelerometer readings are combined by
+ * {@link PocketFusion} and the device only goes to sleep once they agree. Decisions that
+ * the user overrides by turning the screen back on right away are counted as false triggers.
+ *
+ * While the screen is off a non-wakeup proximity sensor is kept registered with a long
+ * report latency. If it has been near for a while when the display turns on, the device is
+ * taken to be pocketed and sent back to sleep before the keyguard is shown, instead of
+ * waiting for the fusion sensors to start.
+ */
+public class PocketModule implements PartsModule {
+
+    private static final String TAG = "PocketModule";
+
+    /* xiaomi.sensor.large_area_detect */
+    private static final int TYPE_LARGE_AREA_TOUCH_SENSOR = 33171031;
+
+    /* events can wait in the sensor hub for up to this long */
+    private static final int SENSOR_MAX_REPORT_LATENCY_US = 200000;
+
+    /* at or below this the device is taken to be covered */
+    private static final float DARK_LUX = 3f;
+    /* below this the screen is not facing up, i.e. held vertically or face down */
+    private static final float ORIENTATION_MAX_Z = 3f;
+
+    /* the screen turned back on this soon after we put the device to sleep */
+    private static final long FALSE_TRIGGER_WINDOW_MS = 5000;
+
+    private static final int WARM_MAX_REPORT_LATENCY_US = 1000000;
+    /* proximity near for this long before a wake means the device is likely pocketed */
+    private static final long POCKETED_MS = 2000;
+    /* assumed panel on time of a pocket wake until one has been measured */
+    private static final long DEFAULT_POCKET_ON_MS = 2000;
+    private static final long DAY_MS = 86400000;
+
+    private PartsService mHost;
+    private PowerManager mPowerManager;
+    private KeyguardManager mKeyguardManager;
+    private SensorSubscription mTouchSensor, mProximitySensor, mLightSensor, mAccelSensor;
+    private SensorSubscription mWarmProximitySensor;
+    private DisplayStateTracker mDisplayStateTracker;
+
+    private boolean mUserPresent;
+
+    /* the warm proximity sensor, reset on the sensor thread with each registration */
+    private final NearTracker mNearTracker = new NearTracker();
+    private final Runnable mNearResetRunnable = mNearTracker::reset;
+    private boolean mWakeSuppressed;
+    private long mLastSuppressTime;
+    private long mScreenOnTime;
+    private int mSuppressedWakes;
+    /* panel on time of wakes sent back to sleep by the fusion and by the warm sensor */
+    private long mFusionOnTime, mSuppressedOnTime;
+    private int mFusionOnCount;
+    private long mSavedOnTime;
+    private final long mStartTime = SystemClock.elapsedRealtime();
+
+    /* used on the sensor thread only */
+    private final PocketFusion mFusion = new PocketFusion();
+    private boolean mSleepRequested;
+
+    private volatile long mLastSleepTime;
+    private volatile int mSleeps;
+    private int mFalseTriggers;
+    private final LatencyStats mDecisionLatency = new LatencyStats("pocket_decision_ms");
+
+    private final Runnable mResetRunnable = () -> {
+        mFusion.reset();
+        mSleepRequested = false;
+    };
+
+    @Override
+    public int getDependencies() {
+        return DEP_DISPLAY;
+    }
+
+    @Override
+    public void onStart(PartsService host) {
+        mHost = host;
+        dlog("onStart");
+        mPowerManager = (PowerManager) mHost.getSystemService(Context.POWER_SERVICE);
+        mKeyguardManager = (KeyguardManager) mHost.getSystemService(Context.KEYGUARD_SERVICE);
+        final SensorManager sensorManager = mHost.getSystemService(SensorManager.class);
+        mTouchSensor = new SensorSubscription(sensorManager,
+                sensorManager.getDefaultSensor(TYPE_LARGE_AREA_TOUCH_SENSOR),
+                SensorManager.SENSOR_DELAY_NORMAL, SENSOR_MAX_REPORT_LATENCY_US, mSensorListener);
+        mProximitySensor = new SensorSubscription(sensorManager,
+                sensorManager.getDefaultSensor(Sensor.TYPE_PROXIMITY),
+                SensorManager.SENSOR_DELAY_NORMAL, SENSOR_MAX_REPORT_LATENCY_US, mSensorListener);
+        mLightSensor = new SensorSubscription(sensorManager,
+                sensorManager.getDefaultSensor(Sensor.TYPE_LIGHT),
+                SensorManager.SENSOR_DELAY_NORMAL, SENSOR_MAX_REPORT_LATENCY_US, mSensorListener);
+        mAccelSensor = new SensorSubscription(sensorManager,
+                sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER),
+                SensorManager.SENSOR_DELAY_NORMAL, SENSOR_MAX_REPORT_LATENCY_US, mSensorListener);
+        Sensor warmProximity = sensorManager.getDefaultSensor(Sensor.TYPE_PROXIMITY, false);
+        if (warmProximity == null) {
+            // many panels only expose the wakeup one, it still batches but wakes the AP
+            Log.w(TAG, "No non-wakeup proximity sensor, using the wakeup one while screen off");
+            warmProximity = sensorManager.getDefaultSensor(Sensor.TYPE_PROXIMITY, true);
+        }
+        if (warmProximity == null) {
+            Log.w(TAG, "No proximity sensor, pocketed wakes will not be suppressed");
+        }
+        mWarmProximitySensor = new SensorSubscription(sensorManager, warmProximity,
+                SensorManager.SENSOR_DELAY_NORMAL, WARM_MAX_REPORT_LATENCY_US,
+                mWarmSensorListener);
+        mDisplayStateTracker = DisplayStateTracker.getInstance(mHost);
+        mDisplayStateTracker.addCallback(mDisplayStateCallback);
+    }
+
+    @Override
+    public void onStop() {
+        dlog("onStop");
+        mDisplayStateTracker.removeCallback(mDisplayStateCallback);
+        unregisterSensors();
+        unregisterWarmSensor();
+    }
+
+    @Override
+    public void dump(DumpWriter dw) {
+        final long runTime = Math.max(SystemClock.elapsedRealtime() - mStartTime, 1);
+        dw.put("userPresent", mUserPresent)
+                .put("wakeSuppressed", mWakeSuppressed)
+                .put("sleeps", mSleeps)
+                .put("falseTriggers", mFalseTriggers)
+                .put("suppressedWakes", mSuppressedWakes)
+                .put("suppressedOnMs", mSuppressedOnTime)
+                .put("savedOnMs", mSavedOnTime)
+                .put("savedOnMsPerDay", mSavedOnTime * DAY_MS / runTime)
+                .put(mDecisionLatency);
+        mWarmProximitySensor.dump(dw.section("warmProximitySensor"));
+        mTouchSensor.dump(dw.section("touchSensor"));
+        mProximitySensor.dump(dw.section("proximitySensor"));
+        mLightSensor.dump(dw.section("lightSensor"));
+        mAccelSensor.dump(dw.section("accelSensor"));
+    }
+
+    @Override
+    public void onScreenOn() {
+        dlog("onScreenOn mUserPresent=" + mUserPresent);
+        if (mLastSleepTime != 0 && SystemClock.elapsedRealtime() - mLastSleepTime
+                < FALSE_TRIGGER_WINDOW_MS) {
+            mFalseTriggers++;
+            Log.i(TAG, "Screen turned on right after pocket sleep, false trigger");
+        }
+        mLastSleepTime = 0;
+        if (mWakeSuppressed) {
+            // already going back to sleep
+            return;
+        }
+        unregisterWarmSensor();
+        if (mUserPresent) return;
+        registerSensors();
+    }
+
+    @Override
+    public void onScreenOff() {
+        dlog("onScreenOff");
+        unregisterSensors();
+        registerWarmSensor();
+        mUserPresent = false;
+    }
+
+    @Override
+    public void onUserPresent() {
+        dlog("onUserPresent");
+        // disable when unlocked
+        unregisterSensors();
+        mUserPresent = true;
+    }
+
+    private final DisplayStateTracker.Callback mDisplayStateCallback = (state) -> {
+        final long now = SystemClock.elapsedRealtime();
+        if (state != Display.STATE_ON) {
+            if (mScreenOnTime != 0) {
+                updateOnTime(now - mScreenOnTime);
+                mScreenOnTime = 0;
+                // only once the suppressed wake has been accounted
+                mWakeSuppressed = false;
+            }
+            return;
+        }
+        mScreenOnTime = now;
+        // the display reports on while the keyguard is still being drawn
+        if (mUserPresent || !mNearTracker.isNearFor(now, POCKETED_MS)) {
+            return;
+        }
+        if (now - mLastSuppressTime < FALSE_TRIGGER_WINDOW_MS) {
+            // woken again right away, the user wants the screen on
+            mFalseTriggers++;
+            Log.i(TAG, "Screen turned on right after pocket suppression, false trigger");
+            return;
+        }
+        if (!mKeyguardManager.isKeyguardLocked()) {
+            return;
+        }
+        Log.i(TAG, "Woken in pocket, going back to sleep");
+        mWakeSuppressed = true;
+        mLastSuppressTime = now;
+        mSuppressedWakes++;
+        mPowerManager.goToSleep(SystemClock.uptimeMillis());
+    };
+
+    /* accounts the panel on time of a wake that just ended */
+    private void updateOnTime(long onTime) {
+        if (mWakeSuppressed) {
+            mSuppressedOnTime += onTime;
+            final long pocketOnTime = mFusionOnCount > 0
+                    ? mFusionOnTime / mFusionOnCount : DEFAULT_POCKET_ON_MS;
+            mSavedOnTime += Math.max(pocketOnTime - onTime, 0);
+        } else if (mLastSleepTime != 0) {
+            mFusionOnTime += onTime;
+            mFusionOnCount++;
+        }
+    }
+
+    private void registerWarmSensor() {
+        // a near reading from the last session must not count for this one
+        PartsService.getWorkerHandler().post(mNearResetRunnable);
+        mWarmProximitySensor.register();
+    }
+
+    private void unregisterWarmSensor() {
+        mWarmProximitySensor.unregister();
+        PartsService.getWorkerHandler().post(mNearResetRunnable);
+    }
+
+    private void registerSensors() {
+        // events for the new registrations are queued behind the reset
+        PartsService.getWorkerHandler().post(mResetRunnable);
+        mTouchSensor.register();
+        mProximitySensor.register();
+        mLightSensor.register();
+        mAccelSensor.register();
+    }
+
+    private void unregisterSensors() {
+        mTouchSensor.unregister();
+        mProximitySensor.unregister();
+        mLightSensor.unregister();
+        mAccelSensor.unregister();
+    }
+
+    private SensorEventListener mWarmSensorListener = new SensorEventListener() {
+        @Override
+        public void onAccuracyChanged(Sensor sensor, int accuracy) {
+            // no-op
+        }
+
+        @Override
+        public void onSensorChanged(SensorEvent event) {
+            // delivery can trail the near edge by the whole batch latency
+            mNearTracker.onProximity(event.values[0] < event.sensor.getMaximumRange(),
+                    TimeUnit.NANOSECONDS.toMillis(event.timestamp));
+        }
+    };
+
+    private SensorEventListener mSensorListener = new SensorEventListener() {
+        @Override
+        public void onAccuracyChanged(Sensor sensor, int accuracy) {
+            // no-op
+        }
+
+        @Override
+        public void onSensorChanged(SensorEvent event) {
+            final long now = SystemClock.elapsedRealtime();
+            switch (event.sensor.getType()) {
+                case TYPE_LARGE_AREA_TOUCH_SENSOR:
+                    mFusion.setSignal(PocketFusion.SIGNAL_LARGE_AREA_TOUCH,
+                            event.values[0] == 1, now);
+                    break;
+                case Sensor.TYPE_PROXIMITY:
+                    mFusion.setSignal(PocketFusion.SIGNAL_PROXIMITY,
+                            event.values[0] < event.sensor.getMaximumRange(), now);
+                    break;
+                case Sensor.TYPE_LIGHT:
+                    mFusion.setSignal(PocketFusion.SIGNAL_DARK, event.values[0] <= DARK_LUX, now);
+                    break;
+                case Sensor.TYPE_ACCELEROMETER:
+                    mFusion.setSignal(PocketFusion.SIGNAL_ORIENTATION,
+                            event.values[2] < ORIENTATION_MAX_Z, now);
+                    break;
+            }
+            if (mSleepRequested) {
+                return;
+            }
+            final int confidence = mFusion.getConfidence(now);
+            if (confidence < PocketFusion.CONFIDENCE_THRESHOLD) {
+                return;
+            }
+            final boolean isOnKeyguard = mKeyguardManager.isKeyguardLocked();
+            dlog("onSensorChanged: " + mFusion + " confidence=" + confidence
+                    + " isOnKeyguard=" + isOnKeyguard);
+            if (!isOnKeyguard) {
+                return;
+            }
+            Log.i(TAG, "In pocket, going to sleep, confidence=" + confidence);
+            mDecisionLatency.record(now - mFusion.getFirstSignalTime(now));
+            mSleepRequested = true;
+            mSleeps++;
+            mLastSleepTime = now;
+            mPowerManager.goToSleep(SystemClock.uptimeMillis());
+        }
+    };
+
+    private static void dlog(String msg) {
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, msg);
+        }
+    }
+}
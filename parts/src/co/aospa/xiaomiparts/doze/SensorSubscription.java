@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2023 Paranoid Android
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package co.aospa.xiaomiparts.doze;
+
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+import android.os.SystemClock;
+import android.util.Log;
+
+import co.aospa.xiaomiparts.PartsService;
+import co.aospa.xiaomiparts.utils.DumpWriter;
+
+/**
+ * A registration of one sensor listener for the doze services.
+ *
+ * Events are delivered on the shared worker thread instead of the main thread, and
+ * hardware batching is requested whenever the sensor has a FIFO so that events can be
+ * held in the sensor hub instead of waking the AP one by one. Deliveries are counted so
+ * that AP wakeups per hour can be reported for each sensor.
+ */
+class SensorSubscription {
+
+    private static final String TAG = "SensorSubscription";
+
+    /* deliveries closer together than this are taken as one batch */
+    private static final long BATCH_GAP_MS = 50;
+    private static final long HOUR_MS = 3600000;
+
+    private final SensorManager mSensorManager;
+    private final Sensor mSensor;
+    private final int mSamplingPeriodUs;
+    private final int mMaxReportLatencyUs;
+    private final SensorEventListener mListener;
+
+    private boolean mIsRegistered;
+    private long mRegisterTime, mActiveTime;
+    /* written on the sensor thread only */
+    private volatile long mEvents, mWakeups;
+    private long mLastDeliveryTime;
+
+    private final SensorEventListener mCountingListener = new SensorEventListener() {
+        @Override
+        public void onAccuracyChanged(Sensor sensor, int accuracy) {
+            mListener.onAccuracyChanged(sensor, accuracy);
+        }
+
+        @Override
+        public void onSensorChanged(SensorEvent event) {
+            final long now = SystemClock.elapsedRealtime();
+            if (now - mLastDeliveryTime > BATCH_GAP_MS) {
+                mWakeups++;
+            }
+            mLastDeliveryTime = now;
+            mEvents++;
+            mListener.onSensorChanged(event);
+        }
+    };
+
+    SensorSubscription(SensorManager sensorManager, Sensor sensor, int samplingPeriodUs,
+            int maxReportLatencyUs, SensorEventListener listener) {
+        mSensorManager = sensorManager;
+        mSensor = sensor;
+        mSamplingPeriodUs = samplingPeriodUs;
+        mMaxReportLatencyUs = maxReportLatencyUs;
+        mListener = listener;
+    }
+
+    boolean isRegistered() {
+        return mIsRegistered;
+    }
+
+    void register() {
+        if (mIsRegistered || mSensor == null) {
+            return;
+        }
+        // batching only helps if the sensor hub can hold the events
+        final int maxReportLatencyUs = mSensor.getFifoMaxEventCount() > 0
+                ? mMaxReportLatencyUs : 0;
+        dlog("register: " + mSensor.getStringType() + " maxReportLatencyUs="
+                + maxReportLatencyUs);
+        mIsRegistered = mSensorManager.registerListener(mCountingListener, mSensor,
+                mSamplingPeriodUs, maxReportLatencyUs, PartsService.getWorkerHandler());
+        if (mIsRegistered) {
+            mRegisterTime = SystemClock.elapsedRealtime();
+        } else {
+            Log.e(TAG, "Failed to register " + mSensor.getStringType());
+        }
+    }
+
+    void unregister() {
+        if (!mIsRegistered) {
+            return;
+        }
+        dlog("unregister: " + mSensor.getStringType());
+        mSensorManager.unregisterListener(mCountingListener, mSensor);
+        mActiveTime += SystemClock.elapsedRealtime() - mRegisterTime;
+        mIsRegistered = false;
+    }
+
+    void dump(DumpWriter dw) {
+        long activeTime = mActiveTime;
+        if (mIsRegistered) {
+            activeTime += SystemClock.elapsedRealtime() - mRegisterTime;
+        }
+        final float hours = (float) activeTime / HOUR_MS;
+        dw.put("type", mSensor != null ? mSensor.getStringType() : null)
+                .put("registered", mIsRegistered)
+                .put("activeMs", activeTime)
+                .put("events", mEvents)
+                .put("wakeups", mWakeups)
+                .put("wakeupsPerHour", hours > 0 ? mWakeups / hours : 0);
+    }
+
+    @Override
+    public String toString() {
+        long activeTime = mActiveTime;
+        if (mIsRegistered) {
+            activeTime += SystemClock.elapsedRealtime() - mRegisterTime;
+        }
+        final float hours = (float) activeTime / HOUR_MS;
+        return (mSensor != null ? mSensor.getStringType() : "null") + ": activeMs=" + activeTime
+                + " events=" + mEvents + " wakeups=" + mWakeups + " wakeupsPerHour="
+                + (hours > 0 ? String.format("%.1f", mWakeups / hours) : "0");
+    }
+
+    private static void dlog(String msg) {
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, msg);
+        }
+    }
+}
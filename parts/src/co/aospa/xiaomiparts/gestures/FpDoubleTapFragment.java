@@ -38,9 +38,13 @@ public class FpDoubleTapFragment extends PreferenceFragment implements
     private static final String TAG = "FpDoubleTapFragment";
     private static final String PREF_ENABLE = "fp_double_tap_enable";
     private static final String PREF_ACTION = "fp_double_tap_action";
+    private static final String PREF_TRIPLE_TAP_ACTION = "fp_triple_tap_action";
+    private static final String PREF_LONG_PRESS_ACTION = "fp_long_press_action";
 
     private MainSwitchPreference mSwitchBar;
     private ListPreference mActionPref;
+    private ListPreference mTripleTapActionPref;
+    private ListPreference mLongPressActionPref;
 
     @Override
     public void onCreatePreferences(Bundle savedInstanceState, String rootKey) {
@@ -57,6 +61,21 @@ public class FpDoubleTapFragment extends PreferenceFragment implements
         mActionPref.setEnabled(enabled);
         mActionPref.setOnPreferenceChangeListener(this);
         mActionPref.setValue(Integer.toString(action));
+
+        mTripleTapActionPref = initGestureActionPref(PREF_TRIPLE_TAP_ACTION,
+                GestureUtils.SETTING_KEY_TRIPLE_TAP_ACTION, enabled);
+        mLongPressActionPref = initGestureActionPref(PREF_LONG_PRESS_ACTION,
+                GestureUtils.SETTING_KEY_LONG_PRESS_ACTION, enabled);
+    }
+
+    private ListPreference initGestureActionPref(String key, String settingKey,
+            boolean enabled) {
+        final ListPreference pref = (ListPreference) findPreference(key);
+        pref.setEnabled(enabled);
+        pref.setOnPreferenceChangeListener(this);
+        pref.setValue(Integer.toString(GestureUtils.getFpGestureAction(getActivity(),
+                settingKey)));
+        return pref;
     }
 
     @Override
@@ -67,6 +86,16 @@ public class FpDoubleTapFragment extends PreferenceFragment implements
                 Settings.System.putIntForUser(getActivity().getContentResolver(),
                         GestureUtils.SETTING_KEY_ACTION, action, UserHandle.USER_CURRENT);
                 return true;
+            case PREF_TRIPLE_TAP_ACTION:
+                Settings.System.putIntForUser(getActivity().getContentResolver(),
+                        GestureUtils.SETTING_KEY_TRIPLE_TAP_ACTION,
+                        Integer.parseInt(newValue.toString()), UserHandle.USER_CURRENT);
+                return true;
+            case PREF_LONG_PRESS_ACTION:
+                Settings.System.putIntForUser(getActivity().getContentResolver(),
+                        GestureUtils.SETTING_KEY_LONG_PRESS_ACTION,
+                        Integer.parseInt(newValue.toString()), UserHandle.USER_CURRENT);
+                return true;
             default:
                 return false;
         }
@@ -75,6 +104,8 @@ public class FpDoubleTapFragment extends PreferenceFragment implements
     @Override
     public void onSwitchChanged(Switch switchView, boolean isChecked) {
         mActionPref.setEnabled(isChecked);
+        mTripleTapActionPref.setEnabled(isChecked);
+        mLongPressActionPref.setEnabled(isChecked);
         Settings.System.putIntForUser(getActivity().getContentResolver(),
                 GestureUtils.SETTING_KEY_ENABLE, isChecked ? 1 : 0, UserHandle.USER_CURRENT);
         GestureUtils.setFingerprintNavigation(isChecked);
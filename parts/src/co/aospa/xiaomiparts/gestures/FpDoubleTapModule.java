@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2023 Paranoid Android
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package co.aospa.xiaomiparts.gestures;
+
+import android.util.Log;
+
+import co.aospa.xiaomiparts.PartsModule;
+import co.aospa.xiaomiparts.PartsService;
+import co.aospa.xiaomiparts.utils.DumpWriter;
+
+/**
+ * Restores fingerprint navigation for the double tap gesture at boot.
+ */
+public class FpDoubleTapModule implements PartsModule {
+
+    private static final String TAG = "FpDoubleTapModule";
+
+    private boolean mAvailable;
+    private boolean mEnabledAtBoot;
+
+    @Override
+    public int getDependencies() {
+        return DEP_SETTINGS | DEP_FINGERPRINT;
+    }
+
+    @Override
+    public void onPrepare(PartsService host) {
+        // the HAL call would otherwise block the main thread
+        mAvailable = GestureUtils.isFpDoubleTapAvailable(host);
+        mEnabledAtBoot = mAvailable && GestureUtils.isFpDoubleTapEnabled(host);
+        if (mEnabledAtBoot) {
+            GestureUtils.setFingerprintNavigation(true);
+        }
+    }
+
+    @Override
+    public void onStart(PartsService host) {
+        dlog("onStart");
+    }
+
+    @Override
+    public void onStop() {
+        dlog("onStop");
+    }
+
+    @Override
+    public void dump(DumpWriter dw) {
+        dw.put("available", mAvailable)
+                .put("enabledAtBoot", mEnabledAtBoot);
+    }
+
+    private static void dlog(String msg) {
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, msg);
+        }
+    }
+}
@@ -17,10 +17,13 @@
 package co.aospa.xiaomiparts.gestures;
 
 import android.content.Context;
+import android.os.IHwBinder.DeathRecipient;
 import android.os.UserHandle;
 import android.provider.Settings;
 import android.util.Log;
 
+import co.aospa.xiaomiparts.CapabilityProbe;
+
 import vendor.xiaomi.hardware.fingerprintextension.V1_0.IXiaomiFingerprint;
 
 public class GestureUtils {
@@ -28,14 +31,46 @@ public class GestureUtils {
     private static final String TAG = "GestureUtils";
     static final String SETTING_KEY_ENABLE = "fp_double_tap_enable";
     static final String SETTING_KEY_ACTION = "fp_double_tap_action";
+    static final String SETTING_KEY_TRIPLE_TAP_ACTION = "fp_triple_tap_action";
+    static final String SETTING_KEY_LONG_PRESS_ACTION = "fp_long_press_action";
 
     private static final int FINGERPRINT_CMD_LOCKOUT_MODE = 12;
     private static final int POWERFP_DISABLE_NAVIGATION = 0;
     private static final int POWERFP_ENABLE_NAVIGATION = 2;
 
+    /* written under the class lock, the death notification comes on a binder thread */
+    private static IXiaomiFingerprint mXiaomiFp;
+
+    /* kept in a field, HwBinder only holds death recipients weakly */
+    private static final DeathRecipient mDeathRecipient = (cookie) -> {
+        Log.d(TAG, "fingerprint extension died");
+        synchronized (GestureUtils.class) {
+            mXiaomiFp = null;
+        }
+    };
+
+    private static synchronized IXiaomiFingerprint getXiaomiFingerprint() throws Exception {
+        if (mXiaomiFp == null) {
+            final IXiaomiFingerprint xiaomiFp = IXiaomiFingerprint.getService();
+            xiaomiFp.asBinder().linkToDeath(mDeathRecipient, 0);
+            mXiaomiFp = xiaomiFp;
+        }
+        return mXiaomiFp;
+    }
+
+    /* Blocks until the fingerprint extension is up, false if it is not there */
+    public static boolean waitForService() {
+        try {
+            return getXiaomiFingerprint() != null;
+        } catch (Exception e) {
+            Log.e(TAG, "waitForService failed: ", e);
+            return false;
+        }
+    }
+
     public static void setFingerprintNavigation(boolean enable) {
         try {
-            IXiaomiFingerprint xiaomiFp = IXiaomiFingerprint.getService();
+            IXiaomiFingerprint xiaomiFp = getXiaomiFingerprint();
             xiaomiFp.extCmd(FINGERPRINT_CMD_LOCKOUT_MODE,
                     enable ? POWERFP_ENABLE_NAVIGATION : POWERFP_DISABLE_NAVIGATION);
             Log.d(TAG, "setFingerprintNavigation: " + enable);
@@ -44,15 +79,8 @@ public class GestureUtils {
         }
     }
 
-    public static void onBootCompleted(Context context) {
-        if (isFpDoubleTapAvailable(context) && isFpDoubleTapEnabled(context)) {
-            setFingerprintNavigation(true);
-        }
-    }
-
     public static boolean isFpDoubleTapAvailable(Context context) {
-        return context.getResources().getBoolean(
-                com.android.internal.R.bool.config_is_powerbutton_fps);
+        return CapabilityProbe.getInstance(context).has(CapabilityProbe.CAP_POWERBUTTON_FPS);
     }
 
     public static boolean isFpDoubleTapEnabled(Context context) {
@@ -65,4 +93,10 @@ public class GestureUtils {
                 1, UserHandle.USER_CURRENT);
     }
 
+    /* 0 if the gesture has no action */
+    public static int getFpGestureAction(Context context, String key) {
+        return Settings.System.getIntForUser(context.getContentResolver(), key,
+                0, UserHandle.USER_CURRENT);
+    }
+
 }
@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2020 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.aospa.xiaomiparts.thermal;
+
+import android.util.Log;
+
+import co.aospa.xiaomiparts.PartsModule;
+import co.aospa.xiaomiparts.PartsService;
+import co.aospa.xiaomiparts.utils.DumpWriter;
+import co.aospa.xiaomiparts.utils.ForegroundAppTracker;
+
+public class ThermalModule implements PartsModule {
+
+    private static final String TAG = "ThermalModule";
+
+    private PartsService mHost;
+    private boolean mScreenOn = true;
+    private boolean mCameraActive;
+    private String mCurrentApp = "";
+    private ThermalUtils mThermalUtils;
+    private ForegroundAppTracker mForegroundAppTracker;
+
+    private final ForegroundAppTracker.Callback mForegroundAppCallback = packageName -> {
+        if (!packageName.equals(mCurrentApp)) {
+            mCurrentApp = packageName;
+            setThermalProfile();
+        }
+    };
+
+    @Override
+    public void onStart(PartsService host) {
+        mHost = host;
+        dlog("onStart");
+        mThermalUtils = new ThermalUtils(mHost);
+        mForegroundAppTracker = ForegroundAppTracker.getInstance();
+        mForegroundAppTracker.addCallback(mForegroundAppCallback);
+    }
+
+    @Override
+    public void onStop() {
+        dlog("onStop");
+        mForegroundAppTracker.removeCallback(mForegroundAppCallback);
+    }
+
+    @Override
+    public void onScreenOn() {
+        mScreenOn = true;
+        setThermalProfile();
+    }
+
+    @Override
+    public void onScreenOff() {
+        mScreenOn = false;
+        setThermalProfile();
+    }
+
+    @Override
+    public void dump(DumpWriter dw) {
+        dw.put("screenOn", mScreenOn)
+                .put("cameraActive", mCameraActive)
+                .put("currentApp", mCurrentApp);
+        mThermalUtils.dump(dw);
+    }
+
+    /* Use the camera profile regardless of the foreground app while active */
+    public void setCameraActive(boolean active) {
+        dlog("setCameraActive: " + active);
+        mCameraActive = active;
+        setThermalProfile();
+    }
+
+    private void setThermalProfile() {
+        if (mScreenOn && mCameraActive) {
+            mThermalUtils.setCameraThermalProfile();
+        } else if (mScreenOn) {
+            mThermalUtils.setThermalProfile(mCurrentApp);
+        } else {
+            mThermalUtils.setDefaultThermalProfile();
+        }
+    }
+
+    private static void dlog(String msg) {
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, msg);
+        }
+    }
+}
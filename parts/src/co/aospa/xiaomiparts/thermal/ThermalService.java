@@ -1,118 +0,0 @@
-/*
- * Copyright (C) 2020 The LineageOS Project
- *
- * Licensed under the Apache License, Version 2.0 (the "License");
- * you may not use this file except in compliance with the License.
- * You may obtain a copy of the License at
- *
- *      http://www.apache.org/licenses/LICENSE-2.0
- *
- * Unless required by applicable law or agreed to in writing, software
- * distributed under the License is distributed on an "AS IS" BASIS,
- * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
- * See the License for the specific language governing permissions and
- * limitations under the License.
- */
-
-package co.aospa.xiaomiparts.thermal;
-
-import android.app.ActivityTaskManager;
-import android.app.TaskStackListener;
-import android.app.Service;
-import android.content.BroadcastReceiver;
-import android.content.ComponentName;
-import android.content.Context;
-import android.content.Intent;
-import android.content.IntentFilter;
-import android.content.res.Configuration;
-import android.os.IBinder;
-import android.os.RemoteException;
-import android.util.Log;
-
-public class ThermalService extends Service {
-
-    private static final String TAG = "ThermalService";
-
-    private boolean mScreenOn = true;
-    private String mCurrentApp = "";
-    private ThermalUtils mThermalUtils;
-
-    private BroadcastReceiver mIntentReceiver = new BroadcastReceiver() {
-        @Override
-        public void onReceive(Context context, Intent intent) {
-            switch (intent.getAction()) {
-                case Intent.ACTION_SCREEN_OFF:
-                    mScreenOn = false;
-                    setThermalProfile();
-                    break;
-                case Intent.ACTION_SCREEN_ON:
-                    mScreenOn = true;
-                    setThermalProfile();
-                    break;
-            }
-        }
-    };
-
-    @Override
-    public void onCreate() {
-        dlog("Creating service");
-        try {
-            ActivityTaskManager.getService().registerTaskStackListener(mTaskListener);
-        } catch (RemoteException e) {
-            // Do nothing
-        }
-        mThermalUtils = new ThermalUtils(this);
-        registerReceiver();
-        super.onCreate();
-    }
-
-    @Override
-    public int onStartCommand(Intent intent, int flags, int startId) {
-        dlog("Starting service");
-        return START_STICKY;
-    }
-
-    @Override
-    public IBinder onBind(Intent intent) {
-        return null;
-    }
-
-    private void registerReceiver() {
-        IntentFilter filter = new IntentFilter();
-        filter.addAction(Intent.ACTION_SCREEN_OFF);
-        filter.addAction(Intent.ACTION_SCREEN_ON);
-        this.registerReceiver(mIntentReceiver, filter);
-    }
-
-    private void setThermalProfile() {
-        if (mScreenOn) {
-            mThermalUtils.setThermalProfile(mCurrentApp);
-        } else {
-            mThermalUtils.setDefaultThermalProfile();
-        }
-    }
-
-    private final TaskStackListener mTaskListener = new TaskStackListener() {
-        @Override
-        public void onTaskStackChanged() {
-            try {
-                final ActivityTaskManager.RootTaskInfo focusedTask =
-                        ActivityTaskManager.getService().getFocusedRootTaskInfo();
-                if (focusedTask != null && focusedTask.topActivity != null) {
-                    ComponentName taskComponentName = focusedTask.topActivity;
-                    String foregroundApp = taskComponentName.getPackageName();
-                    if (!foregroundApp.equals(mCurrentApp)) {
-                        mCurrentApp = foregroundApp;
-                        setThermalProfile();
-                    }
-                }
-            } catch (Exception e) {}
-        }
-    };
-
-    private static void dlog(String msg) {
-        if (Log.isLoggable(TAG, Log.DEBUG)) {
-            Log.d(TAG, msg);
-        }
-    }
-}
@@ -17,17 +17,16 @@
 package co.aospa.xiaomiparts.thermal;
 
 import android.content.Context;
-import android.content.Intent;
 import android.content.SharedPreferences;
 import android.os.RemoteException;
 import android.os.SystemProperties;
-import android.os.UserHandle;
 import android.view.Display;
 import android.view.Surface;
 import android.view.WindowManager;
 
 import androidx.preference.PreferenceManager;
 
+import co.aospa.xiaomiparts.utils.DumpWriter;
 import co.aospa.xiaomiparts.utils.FileUtils;
 
 public final class ThermalUtils {
@@ -63,11 +62,15 @@ public final class ThermalUtils {
     private static final String THERMAL_STREAMING = "thermal.streaming=";
     private static final String THERMAL_VIDEO = "thermal.video=";
 
-    private static final String THERMAL_SCONFIG = "/sys/class/thermal/thermal_message/sconfig";
+    public static final String THERMAL_SCONFIG = "/sys/class/thermal/thermal_message/sconfig";
 
     private Display mDisplay;
     private SharedPreferences mSharedPrefs;
 
+    /* last state written to sconfig, null if unknown */
+    private String mAppliedState;
+    private int mWrites, mWriteFailures;
+
     protected ThermalUtils(Context context) {
         mSharedPrefs = PreferenceManager.getDefaultSharedPreferences(context);
 
@@ -75,11 +78,6 @@ public final class ThermalUtils {
         mDisplay = mWindowManager.getDefaultDisplay();
     }
 
-    public static void startService(Context context) {
-        context.startServiceAsUser(new Intent(context, ThermalService.class),
-                UserHandle.CURRENT);
-    }
-
     private void writeValue(String profiles) {
         mSharedPrefs.edit().putString(THERMAL_CONTROL, profiles).apply();
     }
@@ -161,7 +159,11 @@ public final class ThermalUtils {
     }
 
     protected void setDefaultThermalProfile() {
-        FileUtils.writeLine(THERMAL_SCONFIG, THERMAL_STATE_DEFAULT);
+        writeState(THERMAL_STATE_DEFAULT);
+    }
+
+    protected void setCameraThermalProfile() {
+        writeState(THERMAL_STATE_CAMERA);
     }
 
     protected void setThermalProfile(String packageName) {
@@ -191,6 +193,22 @@ public final class ThermalUtils {
             }
         }
 
-        FileUtils.writeLine(THERMAL_SCONFIG, state);
+        writeState(state);
+    }
+
+    protected void dump(DumpWriter dw) {
+        dw.put("sconfig", mAppliedState)
+                .put("writes", mWrites)
+                .put("writeFailures", mWriteFailures);
+    }
+
+    private void writeState(String state) {
+        mWrites++;
+        if (FileUtils.writeLine(THERMAL_SCONFIG, state)) {
+            mAppliedState = state;
+        } else {
+            mWriteFailures++;
+            mAppliedState = null;
+        }
     }
 }
@@ -0,0 +1,216 @@
+/*
+ * Copyright (C) 2023 Paranoid Android
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package co.aospa.xiaomiparts.touch;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.PowerManager;
+import android.os.SystemClock;
+import android.provider.Settings;
+import android.util.Log;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+import co.aospa.xiaomiparts.CapabilityProbe;
+import co.aospa.xiaomiparts.PartsModule;
+import co.aospa.xiaomiparts.PartsService;
+import co.aospa.xiaomiparts.R;
+import co.aospa.xiaomiparts.utils.DumpWriter;
+import co.aospa.xiaomiparts.utils.FileUtils;
+import co.aospa.xiaomiparts.utils.ForegroundAppTracker;
+
+/**
+ * Enables high touch polling for the apps in config_appHighTouchPolling, or for every app
+ * while the touch_polling_enabled setting is on.
+ *
+ * The value is only written when it changes while the screen is on; the panel drops it on
+ * suspend, so it is written again after every screen on.
+ */
+public class HighTouchPollingModule implements PartsModule {
+
+    private static final String TAG = "HighTouchPollingModule";
+    private static final String SETTING_KEY = "touch_polling_enabled";
+    public static final String TS_NODE = "/sys/devices/platform/goodix_ts.0/goodix_ts_report_rate";
+
+    private static final int UNSET = -1;
+
+    private PartsService mHost;
+    private boolean mHasReportRateNode;
+    private boolean mEnabled;
+    private boolean mCameraActive;
+    private boolean mScreenOn = true;
+    private PowerManager mPowerManager;
+    private ForegroundAppTracker mForegroundAppTracker;
+    private TouchProfileEngine mTouchProfileEngine;
+
+    private final HashSet<String> mHighPollingApps = new HashSet<>();
+    private int mWrittenValue = UNSET;
+    private int mNodeWrites, mNodeWriteFailures, mSuppressedWrites;
+
+    /* package -> time at high polling with the screen on */
+    private final HashMap<String, Long> mHighPollingTime = new HashMap<>();
+    private String mCountedApp;
+    private long mCountStartTime;
+
+    private final ForegroundAppTracker.Callback mForegroundAppCallback = (packageName) -> {
+        writeCurrentValue(false);
+    };
+
+    private final Runnable mSettingObserver = () -> {
+        dlog("SettingObserver: onChange");
+        writeCurrentValue(true);
+    };
+
+    private final BroadcastReceiver mPowerSaveReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            dlog("onReceive: " + intent.getAction());
+            writeCurrentValue(false);
+        }
+    };
+
+    @Override
+    public int getDependencies() {
+        return DEP_SETTINGS | DEP_DISPLAY | DEP_TOUCH_FEATURE;
+    }
+
+    @Override
+    public void onStart(PartsService host) {
+        mHost = host;
+        dlog("onStart");
+        mPowerManager = mHost.getSystemService(PowerManager.class);
+        // no stat on every write, fall back to the touchfeature game mode without the node
+        mHasReportRateNode = CapabilityProbe.getInstance(mHost)
+                .has(CapabilityProbe.CAP_TOUCH_REPORT_RATE_NODE);
+        mForegroundAppTracker = ForegroundAppTracker.getInstance();
+        mTouchProfileEngine = TouchProfileEngine.getInstance(mHost);
+        mHighPollingApps.addAll(Arrays.asList(
+                mHost.getResources().getStringArray(R.array.config_appHighTouchPolling)));
+        if (!mHighPollingApps.isEmpty()) {
+            mForegroundAppTracker.addCallback(mForegroundAppCallback);
+        }
+        mHost.addSettingObserver(Settings.Secure.getUriFor(SETTING_KEY), mSettingObserver);
+        mHost.registerReceiver(mPowerSaveReceiver,
+                new IntentFilter(PowerManager.ACTION_POWER_SAVE_MODE_CHANGED));
+        writeCurrentValue(true);
+    }
+
+    @Override
+    public void onStop() {
+        dlog("onStop");
+        mHost.removeSettingObserver(mSettingObserver);
+        mHost.unregisterReceiver(mPowerSaveReceiver);
+        mForegroundAppTracker.removeCallback(mForegroundAppCallback);
+    }
+
+    @Override
+    public void onScreenOn() {
+        mScreenOn = true;
+        writeCurrentValue(false);
+    }
+
+    @Override
+    public void onScreenOff() {
+        mScreenOn = false;
+        // the panel loses it on suspend
+        mWrittenValue = UNSET;
+        updateHighPollingTime();
+    }
+
+    @Override
+    public void dump(DumpWriter dw) {
+        dw.put("enabled", mEnabled)
+                .put("cameraActive", mCameraActive)
+                .put("screenOn", mScreenOn)
+                .put("reportRateNode", mHasReportRateNode)
+                .put("writtenValue", mWrittenValue)
+                .put("nodeWrites", mNodeWrites)
+                .put("nodeWriteFailures", mNodeWriteFailures)
+                .put("suppressedWrites", mSuppressedWrites);
+        // a copy with the running interval added, dumping must not move the accounting
+        final HashMap<String, Long> highPollingTime = new HashMap<>(mHighPollingTime);
+        if (mCountedApp != null) {
+            addHighPollingTime(highPollingTime, mCountedApp,
+                    SystemClock.elapsedRealtime() - mCountStartTime);
+        }
+        final DumpWriter times = dw.section("highPollingMs");
+        for (Map.Entry<String, Long> entry : highPollingTime.entrySet()) {
+            times.put(entry.getKey(), entry.getValue());
+        }
+        mTouchProfileEngine.dump(dw.section("touchProfile"));
+    }
+
+    /* Enable high polling regardless of the foreground app while active */
+    public void setCameraActive(boolean active) {
+        mCameraActive = active;
+        writeCurrentValue(false);
+    }
+
+    private void writeCurrentValue(boolean readSetting) {
+        if (readSetting)
+            mEnabled = Settings.Secure.getInt(mHost.getContentResolver(), SETTING_KEY, 0) == 1;
+
+        final boolean isPowerSave = mPowerManager.isPowerSaveMode();
+        final String foregroundApp = mForegroundAppTracker.getForegroundApp();
+        final boolean isHighPolling = (mEnabled || mCameraActive
+                || mHighPollingApps.contains(foregroundApp)) && !isPowerSave;
+        dlog("writeCurrentValue: mEnabled=" + mEnabled + " mCameraActive=" + mCameraActive
+                + " mScreenOn=" + mScreenOn
+                + " isPowerSave=" + isPowerSave + " foregroundApp=" + foregroundApp);
+
+        if (!mScreenOn) {
+            return;
+        }
+        final int value = isHighPolling ? 1 : 0;
+        if (value != mWrittenValue) {
+            if (mHasReportRateNode) {
+                mNodeWrites++;
+                if (FileUtils.writeLine(TS_NODE, Integer.toString(value))) {
+                    mWrittenValue = value;
+                } else {
+                    // left unset so the next update writes it again
+                    mNodeWriteFailures++;
+                }
+            } else {
+                // the profile engine retries and verifies the mode itself
+                mTouchProfileEngine.setModeValue(TouchProfileEngine.MODE_GAME, value);
+                mWrittenValue = value;
+            }
+        } else {
+            mSuppressedWrites++;
+        }
+        updateHighPollingTime();
+    }
+
+    /* closes the running interval and starts a new one if polling is high */
+    private void updateHighPollingTime() {
+        final long now = SystemClock.elapsedRealtime();
+        if (mCountedApp != null) {
+            addHighPollingTime(mHighPollingTime, mCountedApp, now - mCountStartTime);
+        }
+        mCountedApp = mScreenOn && mWrittenValue == 1
+                ? mForegroundAppTracker.getForegroundApp() : null;
+        mCountStartTime = now;
+    }
+
+    private static void addHighPollingTime(HashMap<String, Long> times, String app, long ms) {
+        final Long time = times.get(app);
+        times.put(app, (time != null ? time : 0) + ms);
+    }
+
+    private static void dlog(String msg) {
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, msg);
+        }
+    }
+
+}
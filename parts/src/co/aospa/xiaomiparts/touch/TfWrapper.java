@@ -9,25 +9,34 @@ package co.aospa.xiaomiparts.touch;
 import android.os.IHwBinder.DeathRecipient;
 import android.util.Log;
 
+import co.aospa.xiaomiparts.utils.DumpWriter;
+
 import vendor.xiaomi.hw.touchfeature.V1_0.ITouchFeature;
 
 public class TfWrapper {
 
     private static final String TAG = "TouchFeatureWrapper";
 
+    /* written under the class lock, the death notification comes on a binder thread */
     private static ITouchFeature mTouchFeature;
 
-    private static DeathRecipient mDeathRecipient = (cookie) -> {
+    private static int mWrites, mWriteFailures, mReads, mReadFailures;
+
+    /* a field, a temporary recipient would be collected and never called */
+    private static final DeathRecipient mDeathRecipient = (cookie) -> {
         dlog("serviceDied");
-        mTouchFeature = null;
+        synchronized (TfWrapper.class) {
+            mTouchFeature = null;
+        }
     };
 
-    public static ITouchFeature getITouchFeature() {
+    public static synchronized ITouchFeature getITouchFeature() {
         if (mTouchFeature == null) {
             dlog("getITouchFeature: mTouchFeature=null");
             try {
-                mTouchFeature = ITouchFeature.getService();
-                mTouchFeature.asBinder().linkToDeath(mDeathRecipient, 0);
+                final ITouchFeature touchFeature = ITouchFeature.getService();
+                touchFeature.asBinder().linkToDeath(mDeathRecipient, 0);
+                mTouchFeature = touchFeature;
             } catch (Exception e) {
                 Log.e(TAG, "getITouchFeature failed!", e);
             }
@@ -35,18 +44,65 @@ public class TfWrapper {
         return mTouchFeature;
     }
 
-    public static void setModeValue(int mode, int value) {
+    public static boolean setModeValue(int mode, int value) {
         final ITouchFeature touchFeature = getITouchFeature();
         if (touchFeature == null) {
             Log.e(TAG, "setModeValue: touchFeature is null!");
-            return;
+            countWrite(false);
+            return false;
         }
         dlog("set mode=" + mode + " value=" + value);
+        boolean success = false;
         try {
-            touchFeature.setModeValue(0, mode, value);
+            success = touchFeature.setModeValue(0, mode, value);
         } catch (Exception e) {
             Log.e(TAG, "setModeValue failed!", e);
         }
+        countWrite(success);
+        return success;
+    }
+
+    /** Reads the current value of modes 0 to values.length - 1 from the panel. */
+    public static boolean getModeValues(int[] values) {
+        final ITouchFeature touchFeature = getITouchFeature();
+        if (touchFeature == null) {
+            Log.e(TAG, "getModeValues: touchFeature is null!");
+            countRead(false);
+            return false;
+        }
+        try {
+            for (int mode = 0; mode < values.length; mode++) {
+                values[mode] = touchFeature.getModeCurValue(0, mode);
+            }
+            countRead(true);
+            return true;
+        } catch (Exception e) {
+            Log.e(TAG, "getModeValues failed!", e);
+            countRead(false);
+            return false;
+        }
+    }
+
+    public static synchronized void dump(DumpWriter dw) {
+        dw.put("connected", mTouchFeature != null)
+                .put("writes", mWrites)
+                .put("writeFailures", mWriteFailures)
+                .put("reads", mReads)
+                .put("readFailures", mReadFailures);
+    }
+
+    private static synchronized void countWrite(boolean success) {
+        mWrites++;
+        if (!success) {
+            mWriteFailures++;
+        }
+    }
+
+    private static synchronized void countRead(boolean success) {
+        mReads++;
+        if (!success) {
+            mReadFailures++;
+        }
     }
 
     private static void dlog(String msg) {
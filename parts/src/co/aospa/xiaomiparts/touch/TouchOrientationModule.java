@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2023 Paranoid Android
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package co.aospa.xiaomiparts.touch;
+
+import android.hardware.display.DisplayManager;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.Display;
+
+import co.aospa.xiaomiparts.PartsModule;
+import co.aospa.xiaomiparts.PartsService;
+import co.aospa.xiaomiparts.utils.DumpWriter;
+import co.aospa.xiaomiparts.utils.LatencyStats;
+
+/**
+ * Keeps the touch panel orientation in line with the display rotation.
+ *
+ * Rotation is followed with a display listener on the worker thread, since a 180 degree
+ * flip does not change the configuration, and the panel is only told about actual changes.
+ */
+public class TouchOrientationModule implements PartsModule {
+
+    private static final String TAG = "TouchOrientationModule";
+
+    private static final int UNSET = -1;
+
+    private PartsService mHost;
+    private Handler mHandler;
+    private DisplayManager mDisplayManager;
+    private TouchProfileEngine mTouchProfileEngine;
+
+    /* used on mHandler only */
+    private int mLastRotation = UNSET;
+    private int mUpdates;
+    /* from the display change callback until the panel has the new orientation */
+    private final LatencyStats mUpdateLatency = new LatencyStats("display_change_to_panel_ms");
+
+    private final Runnable mUpdateRunnable = () -> updateOrientation(0);
+
+    private final DisplayManager.DisplayListener mDisplayListener =
+            new DisplayManager.DisplayListener() {
+        @Override
+        public void onDisplayAdded(int displayId) { }
+
+        @Override
+        public void onDisplayRemoved(int displayId) { }
+
+        @Override
+        public void onDisplayChanged(int displayId) {
+            if (displayId == Display.DEFAULT_DISPLAY) {
+                updateOrientation(SystemClock.uptimeMillis());
+            }
+        }
+    };
+
+    @Override
+    public int getDependencies() {
+        return DEP_DISPLAY | DEP_TOUCH_FEATURE;
+    }
+
+    @Override
+    public void onStart(PartsService host) {
+        mHost = host;
+        dlog("onStart");
+        mDisplayManager = mHost.getSystemService(DisplayManager.class);
+        mTouchProfileEngine = TouchProfileEngine.getInstance(mHost);
+        mHandler = PartsService.getWorkerHandler();
+        mDisplayManager.registerDisplayListener(mDisplayListener, mHandler);
+        mHandler.post(mUpdateRunnable);
+    }
+
+    @Override
+    public void onStop() {
+        dlog("onStop");
+        mDisplayManager.unregisterDisplayListener(mDisplayListener);
+        mHandler.removeCallbacks(mUpdateRunnable);
+    }
+
+    @Override
+    public void dump(DumpWriter dw) {
+        dw.put("lastRotation", mLastRotation)
+                .put("updates", mUpdates)
+                .put(mUpdateLatency);
+    }
+
+    /* changeTime is when the display change was delivered, 0 if not from a change */
+    private void updateOrientation(long changeTime) {
+        final Display display = mDisplayManager.getDisplay(Display.DEFAULT_DISPLAY);
+        if (display == null) {
+            return;
+        }
+        final int rotation = display.getRotation();
+        if (rotation == mLastRotation) {
+            return;
+        }
+        dlog("updateTpOrientation: rotation=" + rotation);
+        mLastRotation = rotation;
+
+        // Lucky for us, Surface.ROTATION_* directly translates into touchpanel values
+        mTouchProfileEngine.setModeValue(TouchProfileEngine.MODE_PANEL_ORIENTATION, rotation);
+        mUpdates++;
+        if (changeTime != 0) {
+            mUpdateLatency.record(SystemClock.uptimeMillis() - changeTime);
+        }
+    }
+
+    private static void dlog(String msg) {
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, msg);
+        }
+    }
+
+}
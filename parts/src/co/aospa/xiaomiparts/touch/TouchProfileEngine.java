@@ -0,0 +1,233 @@
+/*
+ * Copyright (C) 2023 Paranoid Android
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package co.aospa.xiaomiparts.touch;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.view.Display;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+import co.aospa.xiaomiparts.R;
+import co.aospa.xiaomiparts.display.DisplayStateTracker;
+import co.aospa.xiaomiparts.utils.DumpWriter;
+import co.aospa.xiaomiparts.utils.ForegroundAppTracker;
+
+/**
+ * Owns every touchfeature mode value and pushes only the ones that change.
+ *
+ * The desired value of each mode comes from, in order, the service that owns the mode (game
+ * mode, panel orientation), the profile of the foreground app and the default profile. Modes
+ * without any value are left alone. The panel forgets its modes on suspend, so every mode is
+ * sent again when the display turns back on and nothing is sent while it is off.
+ *
+ * The touch IC can also be reset behind our back, so shortly after every screen on all the
+ * modes are read back from the panel and the ones that drifted from what was applied are
+ * sent again.
+ */
+public class TouchProfileEngine {
+
+    private static final String TAG = "TouchProfileEngine";
+
+    // from kernel drivers/input/touchscreen/xiaomi/xiaomi_touch.h
+    public static final int MODE_GAME = 0;
+    public static final int MODE_PANEL_ORIENTATION = 8;
+    public static final int MODE_COUNT = 20;
+
+    public static final int UNSET = -1;
+
+    /* give the touch IC time to resume before reading it back */
+    private static final long VERIFY_DELAY_MS = 1000;
+
+    private static TouchProfileEngine sInstance;
+
+    private final DisplayStateTracker mDisplayStateTracker;
+    private final ForegroundAppTracker mForegroundAppTracker;
+
+    private final int[] mDefaultProfile;
+    /* package -> mode values */
+    private final HashMap<String, int[]> mAppProfiles = new HashMap<>();
+    /* set through setModeValue by the services */
+    private final int[] mServiceValues = newProfile();
+    /* what the panel was last sent */
+    private final int[] mAppliedValues = newProfile();
+    private boolean mIsScreenOn;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    /* writes sent, failed, and skipped because the panel already had the value */
+    private int mWrites, mWriteFailures, mSuppressedWrites;
+    /* verifications that found drift, and drifts per mode */
+    private int mVerifications, mDriftEvents;
+    private final int[] mModeDrifts = new int[MODE_COUNT];
+    private final int[] mSnapshot = newProfile();
+
+    private final Runnable mVerifyRunnable = this::verify;
+
+    private final DisplayStateTracker.Callback mDisplayStateCallback = (state) -> {
+        updateScreenState(state == Display.STATE_ON);
+    };
+
+    private final ForegroundAppTracker.Callback mForegroundAppCallback = (packageName) -> {
+        apply();
+    };
+
+    public static synchronized TouchProfileEngine getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new TouchProfileEngine(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private TouchProfileEngine(Context context) {
+        mDisplayStateTracker = DisplayStateTracker.getInstance(context);
+        mForegroundAppTracker = ForegroundAppTracker.getInstance();
+        final String defaultProfile =
+                context.getResources().getString(R.string.config_defaultTouchProfile);
+        int[] values;
+        try {
+            values = parseProfile(defaultProfile);
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Ignoring invalid default touch profile: " + defaultProfile);
+            values = newProfile();
+        }
+        mDefaultProfile = values;
+        for (String entry : context.getResources().getStringArray(
+                R.array.config_appTouchProfiles)) {
+            try {
+                final String[] parts = entry.split("=", 2);
+                mAppProfiles.put(parts[0].trim(), parseProfile(parts[1]));
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Ignoring invalid app touch profile: " + entry);
+            }
+        }
+        mIsScreenOn = mDisplayStateTracker.getDisplayState() == Display.STATE_ON;
+        mDisplayStateTracker.addCallback(mDisplayStateCallback);
+        if (!mAppProfiles.isEmpty()) {
+            mForegroundAppTracker.addCallback(mForegroundAppCallback);
+        }
+        apply();
+    }
+
+    /** Sets the value of a mode owned by the caller, or UNSET to hand it back to the profiles. */
+    public synchronized void setModeValue(int mode, int value) {
+        mServiceValues[mode] = value;
+        apply();
+    }
+
+    public synchronized void dump(DumpWriter dw) {
+        dw.put("screenOn", mIsScreenOn)
+                .put("writes", mWrites)
+                .put("writeFailures", mWriteFailures)
+                .put("suppressedWrites", mSuppressedWrites)
+                .put("applied", mAppliedValues)
+                .put("default", mDefaultProfile)
+                .put("service", mServiceValues)
+                .put("verifications", mVerifications)
+                .put("driftEvents", mDriftEvents)
+                .put("modeDrifts", mModeDrifts)
+                .put("snapshot", mSnapshot);
+    }
+
+    private synchronized void updateScreenState(boolean isScreenOn) {
+        if (isScreenOn == mIsScreenOn) {
+            return;
+        }
+        mIsScreenOn = isScreenOn;
+        mHandler.removeCallbacks(mVerifyRunnable);
+        if (!isScreenOn) {
+            Arrays.fill(mAppliedValues, UNSET);
+            return;
+        }
+        apply();
+        mHandler.postDelayed(mVerifyRunnable, VERIFY_DELAY_MS);
+    }
+
+    /* reads back every mode and sends again the ones that differ from what was applied */
+    private synchronized void verify() {
+        if (!mIsScreenOn || !TfWrapper.getModeValues(mSnapshot)) {
+            return;
+        }
+        mVerifications++;
+        boolean drifted = false;
+        for (int mode = 0; mode < MODE_COUNT; mode++) {
+            if (mAppliedValues[mode] == UNSET || mSnapshot[mode] == mAppliedValues[mode]) {
+                continue;
+            }
+            Log.w(TAG, "Mode " + mode + " drifted from " + mAppliedValues[mode]
+                    + " to " + mSnapshot[mode]);
+            mAppliedValues[mode] = mSnapshot[mode];
+            mModeDrifts[mode]++;
+            drifted = true;
+        }
+        if (drifted) {
+            mDriftEvents++;
+            apply();
+        }
+    }
+
+    private synchronized void apply() {
+        if (!mIsScreenOn) {
+            return;
+        }
+        final int[] appProfile = mAppProfiles.get(mForegroundAppTracker.getForegroundApp());
+        for (int mode = 0; mode < MODE_COUNT; mode++) {
+            int value = mServiceValues[mode];
+            if (value == UNSET && appProfile != null) {
+                value = appProfile[mode];
+            }
+            if (value == UNSET) {
+                value = mDefaultProfile[mode];
+            }
+            if (value == UNSET) {
+                continue;
+            }
+            if (value == mAppliedValues[mode]) {
+                mSuppressedWrites++;
+                continue;
+            }
+            dlog("apply: mode=" + mode + " " + mAppliedValues[mode] + " -> " + value);
+            if (TfWrapper.setModeValue(mode, value)) {
+                mAppliedValues[mode] = value;
+                mWrites++;
+            } else {
+                mWriteFailures++;
+            }
+        }
+    }
+
+    /* "mode:value[,mode:value...]" */
+    private static int[] parseProfile(String profile) {
+        final int[] values = newProfile();
+        if (profile.trim().isEmpty()) {
+            return values;
+        }
+        for (String entry : profile.split(",")) {
+            final String[] parts = entry.split(":");
+            final int mode = Integer.parseInt(parts[0].trim());
+            if (mode < 0 || mode >= MODE_COUNT) {
+                throw new IllegalArgumentException("Unknown touch mode " + mode);
+            }
+            values[mode] = Integer.parseInt(parts[1].trim());
+        }
+        return values;
+    }
+
+    private static int[] newProfile() {
+        final int[] values = new int[MODE_COUNT];
+        Arrays.fill(values, UNSET);
+        return values;
+    }
+
+    private static void dlog(String msg) {
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, msg);
+        }
+    }
+}
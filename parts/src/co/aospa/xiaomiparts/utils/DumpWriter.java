@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2023 Paranoid Android
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package co.aospa.xiaomiparts.utils;
+
+import java.io.PrintWriter;
+
+/**
+ * Writes dump output as one "section.key=value" line per value.
+ *
+ * Whitespace in values is replaced, so every line splits on the first '=' and the output
+ * can be collected by tooling without knowing how each module lays out its state.
+ */
+public class DumpWriter {
+
+    private final PrintWriter mPw;
+    private final String mPrefix;
+
+    public DumpWriter(PrintWriter pw) {
+        this(pw, "");
+    }
+
+    private DumpWriter(PrintWriter pw, String prefix) {
+        mPw = pw;
+        mPrefix = prefix;
+    }
+
+    /** Returns a writer that puts every key under the given section. */
+    public DumpWriter section(String name) {
+        return new DumpWriter(mPw, mPrefix + name + ".");
+    }
+
+    public DumpWriter put(String key, Object value) {
+        mPw.println(mPrefix + key + "=" + String.valueOf(value).replaceAll("\\s+", "_"));
+        return this;
+    }
+
+    public DumpWriter put(String key, int[] values) {
+        final StringBuilder sb = new StringBuilder();
+        if (values != null) {
+            for (int i = 0; i < values.length; i++) {
+                if (i > 0) sb.append(',');
+                sb.append(values[i]);
+            }
+        }
+        return put(key, sb);
+    }
+
+    public DumpWriter put(LatencyStats stats) {
+        stats.dump(section(stats.getName()));
+        return this;
+    }
+}
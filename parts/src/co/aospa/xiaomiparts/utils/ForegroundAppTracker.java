@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2023 Paranoid Android
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package co.aospa.xiaomiparts.utils;
+
+import android.app.ActivityTaskManager;
+import android.app.TaskStackListener;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.RemoteException;
+import android.util.Log;
+
+import java.util.ArrayList;
+
+/**
+ * Follows the package of the focused task and tells its callbacks when it changes.
+ *
+ * Task stack changes arrive on a binder thread and are coalesced onto the main thread,
+ * so callbacks only run there and only for an actual change of package.
+ */
+public class ForegroundAppTracker {
+
+    private static final String TAG = "ForegroundAppTracker";
+
+    public interface Callback {
+        void onForegroundAppChanged(String packageName);
+    }
+
+    private static ForegroundAppTracker sInstance;
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final ArrayList<Callback> mCallbacks = new ArrayList<>();
+    private String mForegroundApp = "";
+    private boolean mIsListening;
+
+    private final Runnable mUpdateRunnable = this::updateForegroundApp;
+
+    private final TaskStackListener mTaskListener = new TaskStackListener() {
+        @Override
+        public void onTaskStackChanged() {
+            mHandler.removeCallbacks(mUpdateRunnable);
+            mHandler.post(mUpdateRunnable);
+        }
+    };
+
+    public static synchronized ForegroundAppTracker getInstance() {
+        if (sInstance == null) {
+            sInstance = new ForegroundAppTracker();
+        }
+        return sInstance;
+    }
+
+    private ForegroundAppTracker() { }
+
+    public void addCallback(Callback callback) {
+        mCallbacks.add(callback);
+        if (!mIsListening) {
+            try {
+                ActivityTaskManager.getService().registerTaskStackListener(mTaskListener);
+                mIsListening = true;
+            } catch (RemoteException e) {
+                Log.e(TAG, "Failed to register task stack listener", e);
+            }
+            updateForegroundApp();
+        }
+    }
+
+    public void removeCallback(Callback callback) {
+        mCallbacks.remove(callback);
+    }
+
+    public String getForegroundApp() {
+        return mForegroundApp;
+    }
+
+    private void updateForegroundApp() {
+        try {
+            final ActivityTaskManager.RootTaskInfo focusedTask =
+                    ActivityTaskManager.getService().getFocusedRootTaskInfo();
+            if (focusedTask == null || focusedTask.topActivity == null) {
+                return;
+            }
+            final String foregroundApp = focusedTask.topActivity.getPackageName();
+            if (foregroundApp.equals(mForegroundApp)) {
+                return;
+            }
+            dlog("updateForegroundApp: " + foregroundApp);
+            mForegroundApp = foregroundApp;
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to get focused task", e);
+            return;
+        }
+        for (Callback callback : new ArrayList<>(mCallbacks)) {
+            callback.onForegroundAppChanged(mForegroundApp);
+        }
+    }
+
+    private static void dlog(String msg) {
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, msg);
+        }
+    }
+}
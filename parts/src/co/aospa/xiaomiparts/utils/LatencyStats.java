@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2023 Paranoid Android
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package co.aospa.xiaomiparts.utils;
+
+/**
+ * Collects latency samples in milliseconds into a small fixed histogram.
+ */
+public class LatencyStats {
+
+    /* upper bounds of the histogram buckets, the last bucket is open ended */
+    private static final long[] BUCKET_BOUNDS_MS = { 1, 2, 5, 10, 20, 50, 100, 200, 500, 1000 };
+
+    private final String mName;
+    private final long[] mBuckets = new long[BUCKET_BOUNDS_MS.length + 1];
+    private long mCount, mTotalMs, mMaxMs;
+    private long mMinMs = Long.MAX_VALUE;
+
+    public LatencyStats(String name) {
+        mName = name;
+    }
+
+    public synchronized void record(long latencyMs) {
+        int bucket = 0;
+        while (bucket < BUCKET_BOUNDS_MS.length && latencyMs > BUCKET_BOUNDS_MS[bucket]) {
+            bucket++;
+        }
+        mBuckets[bucket]++;
+        mCount++;
+        mTotalMs += latencyMs;
+        mMinMs = Math.min(mMinMs, latencyMs);
+        mMaxMs = Math.max(mMaxMs, latencyMs);
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public synchronized long getCount() {
+        return mCount;
+    }
+
+    public synchronized void dump(DumpWriter dw) {
+        dw.put("count", mCount);
+        if (mCount == 0) {
+            return;
+        }
+        dw.put("min", mMinMs).put("avg", mTotalMs / mCount).put("max", mMaxMs);
+        for (int i = 0; i < mBuckets.length; i++) {
+            dw.put(i < BUCKET_BOUNDS_MS.length ? "le_" + BUCKET_BOUNDS_MS[i]
+                    : "gt_" + BUCKET_BOUNDS_MS[BUCKET_BOUNDS_MS.length - 1], mBuckets[i]);
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        final StringBuilder sb = new StringBuilder(mName).append(": count=").append(mCount);
+        if (mCount == 0) {
+            return sb.toString();
+        }
+        sb.append(" min=").append(mMinMs)
+                .append(" avg=").append(mTotalMs / mCount)
+                .append(" max=").append(mMaxMs)
+                .append(" hist=");
+        for (int i = 0; i < mBuckets.length; i++) {
+            if (i > 0) sb.append(',');
+            sb.append(i < BUCKET_BOUNDS_MS.length ? "<=" + BUCKET_BOUNDS_MS[i] : ">"
+                    + BUCKET_BOUNDS_MS[BUCKET_BOUNDS_MS.length - 1]).append(':').append(mBuckets[i]);
+        }
+        return sb.toString();
+    }
+}
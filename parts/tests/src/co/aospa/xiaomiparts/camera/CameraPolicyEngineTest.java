@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2023 Paranoid Android
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package co.aospa.xiaomiparts.camera;
+
+import static co.aospa.xiaomiparts.camera.CameraPolicyEngine.ACTION_PAUSE_NFC;
+import static co.aospa.xiaomiparts.camera.CameraPolicyEngine.ACTION_THERMAL_CAMERA;
+import static co.aospa.xiaomiparts.camera.CameraPolicyEngine.ACTION_TOUCH_HIGH_RATE;
+
+import static org.junit.Assert.assertEquals;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(AndroidJUnit4.class)
+public class CameraPolicyEngineTest {
+
+    private static final String[] RULES = {
+        "*|*=pause_nfc,thermal_camera",
+        "0|com.example.scanner=pause_nfc,touch_high_rate",
+        "*|com.example.exempt=",
+    };
+
+    /* "+action" for every start and "-action" for every stop, in order */
+    private final List<String> mCalls = new ArrayList<>();
+    private final CameraPolicyEngine mEngine = new CameraPolicyEngine(RULES,
+            (action, active) -> mCalls.add((active ? "+" : "-") + action));
+
+    @Test
+    public void openAndClose_startsAndStopsActions() {
+        mEngine.onCameraOpened("0", "com.example.camera");
+        mEngine.onCameraClosed("0");
+        assertEquals(Arrays.asList("+" + ACTION_PAUSE_NFC, "+" + ACTION_THERMAL_CAMERA,
+                "-" + ACTION_PAUSE_NFC, "-" + ACTION_THERMAL_CAMERA), mCalls);
+    }
+
+    @Test
+    public void reopenBySameClient_doesNotRestartActions() {
+        mEngine.onCameraOpened("0", "com.example.camera");
+        mCalls.clear();
+        mEngine.onCameraOpened("0", "com.example.camera");
+        assertEquals(Arrays.asList(), mCalls);
+    }
+
+    @Test
+    public void takeoverWithSameActions_doesNotRestartActions() {
+        mEngine.onCameraOpened("0", "com.example.camera");
+        mCalls.clear();
+        mEngine.onCameraOpened("0", "com.example.other");
+        assertEquals(Arrays.asList(), mCalls);
+    }
+
+    @Test
+    public void takeoverWithOtherActions_appliesOnlyTheDifference() {
+        mEngine.onCameraOpened("0", "com.example.camera");
+        mCalls.clear();
+        mEngine.onCameraOpened("0", "com.example.scanner");
+        assertEquals(Arrays.asList("-" + ACTION_THERMAL_CAMERA, "+" + ACTION_TOUCH_HIGH_RATE),
+                mCalls);
+    }
+
+    @Test
+    public void takeoverByExemptClient_stopsActions() {
+        mEngine.onCameraOpened("0", "com.example.camera");
+        mCalls.clear();
+        mEngine.onCameraOpened("0", "com.example.exempt");
+        mEngine.onCameraClosed("0");
+        assertEquals(Arrays.asList("-" + ACTION_PAUSE_NFC, "-" + ACTION_THERMAL_CAMERA), mCalls);
+    }
+
+    @Test
+    public void twoCameras_stopWithTheLastSession() {
+        mEngine.onCameraOpened("0", "com.example.camera");
+        mEngine.onCameraOpened("1", "com.example.camera");
+        mEngine.onCameraClosed("0");
+        assertEquals(Arrays.asList("+" + ACTION_PAUSE_NFC, "+" + ACTION_THERMAL_CAMERA), mCalls);
+        mEngine.onCameraClosed("1");
+        assertEquals(Arrays.asList("+" + ACTION_PAUSE_NFC, "+" + ACTION_THERMAL_CAMERA,
+                "-" + ACTION_PAUSE_NFC, "-" + ACTION_THERMAL_CAMERA), mCalls);
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2023 Paranoid Android
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package co.aospa.xiaomiparts.doze;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(AndroidJUnit4.class)
+public class NearTrackerTest {
+
+    private static final long POCKETED_MS = 2000;
+
+    private final NearTracker mTracker = new NearTracker();
+
+    @Test
+    public void nearLongEnough_isPocketed() {
+        mTracker.onProximity(true, 1000);
+        assertFalse(mTracker.isNearFor(1000 + POCKETED_MS - 1, POCKETED_MS));
+        assertTrue(mTracker.isNearFor(1000 + POCKETED_MS, POCKETED_MS));
+    }
+
+    @Test
+    public void far_clearsNear() {
+        mTracker.onProximity(true, 1000);
+        mTracker.onProximity(false, 1500);
+        assertFalse(mTracker.isNearFor(10000, POCKETED_MS));
+    }
+
+    @Test
+    public void repeatedNear_keepsFirstEdge() {
+        mTracker.onProximity(true, 1000);
+        mTracker.onProximity(true, 2500);
+        assertTrue(mTracker.isNearFor(1000 + POCKETED_MS, POCKETED_MS));
+    }
+
+    @Test
+    public void nearFromLastSession_doesNotCountAfterReregister() {
+        // the last screen off session ended while near
+        mTracker.onProximity(true, 1000);
+        // screen on unregisters the sensor, the next screen off registers it again
+        mTracker.reset();
+        mTracker.reset();
+        // the first reading of the new session is near, only just now
+        mTracker.onProximity(true, 60000);
+        assertFalse(mTracker.isNearFor(60000 + 100, POCKETED_MS));
+        assertTrue(mTracker.isNearFor(60000 + POCKETED_MS, POCKETED_MS));
+    }
+
+    @Test
+    public void noReadingAfterReregister_isNotPocketed() {
+        mTracker.onProximity(true, 1000);
+        mTracker.reset();
+        assertFalse(mTracker.isNearFor(60000, POCKETED_MS));
+    }
+}